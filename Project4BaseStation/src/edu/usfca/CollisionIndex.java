@@ -0,0 +1,89 @@
+package edu.usfca;
+
+import java.awt.Rectangle;
+
+/**
+ * The collision index stores the obstructions of a map so that a collision
+ * query only needs to look at the obstructions near the queried rectangle,
+ * instead of all the obstructions of the map.
+ *
+ * Each obstruction is identified by the id returned when it is added. The
+ * ids are assigned in the order of adding, starting from 0. The MapData
+ * creates the index using its createIndex method, so a sub-class can install
+ * a different implementation if needed.
+ *
+ * @see GridCollisionIndex
+ * @author mamta
+ */
+public interface CollisionIndex {
+
+    /**
+     * Add an obstruction to the index.
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @return The id of the new obstruction.
+     */
+    public int add(int x, int y, int width, int height);
+
+    /**
+     * Move an existing obstruction to a new position. The size of the
+     * obstruction does not change.
+     *
+     * @param id
+     * @param x
+     * @param y
+     */
+    public void move(int id, int x, int y);
+
+    /**
+     * Get the current position and size of an obstruction.
+     *
+     * @param id
+     * @param result The rectangle to set to the obstruction bounds.
+     * @return The result rectangle.
+     */
+    public Rectangle getBounds(int id, Rectangle result);
+
+    /**
+     * Check whether the supplied rectangle intersects any obstruction.
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @return Return true if intersects, else false.
+     */
+    public boolean intersects(int x, int y, int width, int height);
+
+    /**
+     * Get the ids of the candidate obstructions that may intersect the
+     * supplied rectangle. Every obstruction that intersects is included
+     * once, but some that do not may be included too, so the caller should
+     * check each candidate. If there are more candidates than fit in the
+     * result, only the first ones are put in it, and the caller can query
+     * again with a larger result.
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @param result The array to put the ids in.
+     * @return The number of candidates, which may be more than the result length.
+     */
+    public int query(int x, int y, int width, int height, int[] result);
+
+    /**
+     * Get the number of obstructions in the index.
+     *
+     * @return
+     */
+    public int size();
+
+    /**
+     * Remove all the obstructions from the index.
+     */
+    public void clear();
+}
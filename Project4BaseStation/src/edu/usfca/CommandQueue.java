@@ -0,0 +1,326 @@
+package edu.usfca;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * The queue of the commands to the SPOTs, such as SET_COLOR, with its own
+ * sender thread, so that the thread that queues a command, e.g., the radio
+ * receive thread when a player joins, never waits for a send.
+ *
+ * The sender packs the commands that are due, up to MAX_BATCH of them, into
+ * one broadcast packet: the commands code, the number of commands, and for
+ * each command its code, id, target address and three bytes of arguments.
+ * The SPOT acknowledges the ids of the commands addressed to it. A command
+ * that is not acknowledged is sent again after the retry interval, up to
+ * MAX_TRIES times. A newer command of the same code to the same SPOT
+ * replaces the queued one, e.g., when the color changes before it was
+ * acknowledged.
+ *
+ * The old SPOT that sends the three byte tilt packets only understands a
+ * single command in its own packet: the command code, the target address
+ * and three bytes of arguments, without any id. Such a legacy command is
+ * sent once in its own packet, and no acknowledgement is expected, the
+ * same as the old base station did.
+ *
+ * The time from queuing a command to its acknowledgement is recorded in
+ * the radio.ack metric, in microseconds.
+ *
+ * @author mamta
+ */
+public class CommandQueue implements Runnable {
+    // the command code of the packet of commands, and of its acknowledgement
+    public static final int COMMANDS = 82;
+    public static final int ACK = 83;
+
+    // the maximum number of commands in a packet
+    public static final int MAX_BATCH = 6;
+
+    // the size of a command in the packet: code, id, address and arguments
+    private static final int COMMAND_SIZE = 13;
+
+    // the maximum size of a packet of commands
+    public static final int MAX_PACKET_SIZE = 2 + MAX_BATCH * COMMAND_SIZE;
+
+    // the size of the packet of a legacy command: code, address and arguments
+    static final int LEGACY_PACKET_SIZE = 12;
+
+    // how many milliseconds to wait for the acknowledgement before sending again
+    private static final int RETRY_INTERVAL = 200;
+
+    // how many times to send a command before giving up
+    private static final int MAX_TRIES = 8;
+
+    // the transport to send the packets with
+    private ControllerTransport transport;
+
+    // the metric of the acknowledgement time
+    private Histogram ackTime;
+
+    // the commands not yet acknowledged, in the order they are queued
+    private LinkedList<Command> commands = new LinkedList<Command>();
+
+    // the id of the next command
+    private int nextId = 0;
+
+    // the buffer of the packet, and the commands in it, used only by the sender
+    private byte[] buffer = new byte[MAX_PACKET_SIZE];
+    private Command[] batch = new Command[MAX_BATCH];
+
+    // the sender thread
+    private Thread thread = null;
+
+    /**
+     * Construct a new queue.
+     *
+     * @param transport The transport to send the packets with.
+     * @param ackTime The metric of the acknowledgement time.
+     */
+    public CommandQueue(ControllerTransport transport, Histogram ackTime) {
+        this.transport = transport;
+        this.ackTime = ackTime;
+    }
+
+    /**
+     * Queue a command to the SPOT. It returns without waiting for the send.
+     *
+     * @param addr The SPOT address.
+     * @param code The command code.
+     * @param arg1
+     * @param arg2
+     * @param arg3
+     */
+    public void send(String addr, int code, int arg1, int arg2, int arg3) {
+        send(addr, code, arg1, arg2, arg3, false);
+    }
+
+    /**
+     * Queue a legacy command to an old SPOT. It is sent once in its own
+     * packet, and is not acknowledged. It returns without waiting for the
+     * send.
+     *
+     * @param addr The SPOT address.
+     * @param code The command code.
+     * @param arg1
+     * @param arg2
+     * @param arg3
+     */
+    public void sendLegacy(String addr, int code, int arg1, int arg2, int arg3) {
+        send(addr, code, arg1, arg2, arg3, true);
+    }
+
+    /**
+     * Queue a command to the SPOT, replacing any queued command of the
+     * same code to the same SPOT.
+     *
+     * @param addr The SPOT address.
+     * @param code The command code.
+     * @param arg1
+     * @param arg2
+     * @param arg3
+     * @param legacy Whether to send it as a legacy command.
+     */
+    private synchronized void send(String addr, int code, int arg1, int arg2, int arg3, boolean legacy) {
+        for (Iterator<Command> it=commands.iterator(); it.hasNext(); ) {
+            Command c = it.next();
+            if (c.code == code && c.addr.equals(addr))
+                it.remove();
+        }
+
+        Command c = new Command();
+        c.addr = addr;
+        c.value = SpotAddress.toLong(addr);
+        c.code = code;
+        c.id = nextId;
+        nextId = (nextId + 1) & 0xff;
+        c.args[0] = (byte) arg1;
+        c.args[1] = (byte) arg2;
+        c.args[2] = (byte) arg3;
+        c.queued = System.nanoTime();
+        c.legacy = legacy;
+        commands.add(c);
+        notifyAll();
+    }
+
+    /**
+     * The SPOT acknowledged the command. This is invoked by the radio
+     * receive thread.
+     *
+     * @param addr The SPOT address.
+     * @param id The id of the command.
+     */
+    public synchronized void acked(String addr, int id) {
+        for (Iterator<Command> it=commands.iterator(); it.hasNext(); ) {
+            Command c = it.next();
+            if (c.id == id && c.addr.equals(addr)) {
+                it.remove();
+                ackTime.record((System.nanoTime() - c.queued) / 1000);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the number of commands not yet acknowledged.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return commands.size();
+    }
+
+    /**
+     * Start the sender thread.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "CommandQueue");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the sender thread, and wait for it to finish.
+     */
+    public void stop() {
+        Thread th;
+        synchronized (this) {
+            th = thread;
+            thread = null;
+        }
+        if (th != null) {
+            th.interrupt();
+            try {
+                th.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The thread method waits for the commands that are due, and sends them
+     * in packets of up to MAX_BATCH commands.
+     */
+    public void run() {
+        try {
+            while (true) {
+                int length = nextPacket();
+                try {
+                    transport.send(buffer, length);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        } catch (InterruptedException ex) {
+            // stopped
+        }
+    }
+
+    /**
+     * Wait for the commands that are due, and put them in the packet. A
+     * command that was sent MAX_TRIES times is dropped. A legacy command is
+     * put alone in its packet, and removed as it is sent.
+     *
+     * @return The length of the packet.
+     * @throws InterruptedException
+     */
+    private synchronized int nextPacket() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long wait = Long.MAX_VALUE;
+            int count = 0;
+            for (Iterator<Command> it=commands.iterator(); it.hasNext() && count < MAX_BATCH; ) {
+                Command c = it.next();
+                if (c.due > now) {
+                    wait = Math.min(wait, c.due - now);
+                }
+                else if (c.legacy) {
+                    // sent alone, in the next packet if there is a batch
+                    if (count == 0) {
+                        it.remove();
+                        return packLegacy(c);
+                    }
+                }
+                else if (c.tries >= MAX_TRIES) {
+                    System.out.println("command " + c.code + " to " + c.addr + " not acknowledged");
+                    it.remove();
+                }
+                else {
+                    ++c.tries;
+                    c.due = now + RETRY_INTERVAL;
+                    batch[count++] = c;
+                }
+            }
+
+            if (count > 0)
+                return pack(count);
+            if (wait == Long.MAX_VALUE)
+                wait();
+            else
+                wait(wait);
+        }
+    }
+
+    /**
+     * Put the commands of the batch in the packet.
+     *
+     * @param count The number of commands.
+     * @return The length of the packet.
+     */
+    private int pack(int count) {
+        buffer[0] = (byte) COMMANDS;
+        buffer[1] = (byte) count;
+        int k = 2;
+        for (int i=0; i<count; ++i) {
+            Command c = batch[i];
+            buffer[k++] = (byte) c.code;
+            buffer[k++] = (byte) c.id;
+            for (int j=0; j<8; ++j)
+                buffer[k++] = (byte) (c.value >>> (56 - 8*j));
+            buffer[k++] = c.args[0];
+            buffer[k++] = c.args[1];
+            buffer[k++] = c.args[2];
+            batch[i] = null;
+        }
+        return k;
+    }
+
+    /**
+     * Put the legacy command alone in the packet.
+     *
+     * @param c
+     * @return The length of the packet.
+     */
+    private int packLegacy(Command c) {
+        buffer[0] = (byte) c.code;
+        for (int j=0; j<8; ++j)
+            buffer[1+j] = (byte) (c.value >>> (56 - 8*j));
+        buffer[9] = c.args[0];
+        buffer[10] = c.args[1];
+        buffer[11] = c.args[2];
+        return LEGACY_PACKET_SIZE;
+    }
+
+    /**
+     * A queued command.
+     */
+    private static class Command {
+        String addr;
+        long value;
+        int code;
+        int id;
+        byte[] args = new byte[3];
+
+        // whether it is sent once in the packet of the old SPOT
+        boolean legacy;
+
+        // the time it was queued, from System.nanoTime, and the time it
+        // is sent next, and how many times it was sent
+        long queued;
+        long due = 0;
+        int tries = 0;
+    }
+}
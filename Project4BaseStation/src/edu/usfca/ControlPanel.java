@@ -7,23 +7,29 @@ import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.Map;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  * The is the main user interface and controller of the application. It associated
  * the user interface components with the data model and forwards user actions.
+ * It listens to the game data to add and remove the player views.
  *
  * @author mamta
  */
-public class ControlPanel extends JFrame implements ActionListener {
+public class ControlPanel extends JFrame implements ActionListener, GameListener {
     // various colors in the user interface
     private static final Color bgColor = Color.DARK_GRAY;
     private static final Color fgColor = Color.WHITE;
@@ -39,29 +45,33 @@ public class ControlPanel extends JFrame implements ActionListener {
     private JComboBox maptypeCombo;
     private JComboBox maplevelCombo;
     private JButton newmapButton;
+    private JButton loadmapButton;
+    private JButton savemapButton;
     private JButton startgameButton;
     private JButton stopgameButton;
+    private JCheckBox latencyCheck;
 
     // individual player views indexed by SPOT address
     private Map<String, PlayerView> playerViews = new Hashtable<String, PlayerView>();
 
-    // the listener application that receives event for setColor
-    private Project4BaseStation listener;
+    // the map tiles shared by the player views
+    private TileCache tiles;
+
+    // the single thread that draws the map view and the player views
+    private FrameScheduler scheduler;
 
     /**
      * Construct the user interface, and generate the data model for the game.
      *
-     * @param listener
      * @param title
      */
-    public ControlPanel(Project4BaseStation listener, String title) {
+    public ControlPanel(String title) {
         super(title);
 
-        this.listener = listener;
-
         // create the game data with empty players list
         data = new GameData(this);
-        data.setPlayers(new Hashtable<String, PlayerData>());
+        scheduler = new FrameScheduler(data.getMetrics());
+        tiles = data.getMetrics().getTileCache();
 
         // create other user interface components
         createComponents();
@@ -73,14 +83,15 @@ public class ControlPanel extends JFrame implements ActionListener {
         statusLabel.setText("Start your SunSPOT(s) to join the game");
         validate();
         setVisible(true);
+        scheduler.start();
     }
 
     /**
      * Create main user interface components. This includes the top level
      * buttons, labels as well the the map view on left. The top level
      * contains two boxes to select the map type and difficulty level,
-     * a button to regenerate a new map, and buttons to start and stop
-     * the game, as well as a help text.
+     * a button to regenerate a new map, buttons to load and save a map,
+     * and buttons to start and stop the game, as well as a help text.
      */
     private void createComponents() {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -110,6 +121,16 @@ public class ControlPanel extends JFrame implements ActionListener {
         button1.addActionListener(this);
         newmapButton = button1;
 
+        JButton button4 = new JButton("Load Map");
+        button4.setActionCommand("loadmap");
+        button4.addActionListener(this);
+        loadmapButton = button4;
+
+        JButton button5 = new JButton("Save Map");
+        button5.setActionCommand("savemap");
+        button5.addActionListener(this);
+        savemapButton = button5;
+
         JButton button2 = new JButton("Start Game");
         button2.setActionCommand("startgame");
         //button2.setEnabled(false);
@@ -122,6 +143,13 @@ public class ControlPanel extends JFrame implements ActionListener {
         button3.addActionListener(this);
         stopgameButton = button3;
 
+        JCheckBox check1 = new JCheckBox("Latency");
+        check1.setActionCommand("latency");
+        check1.setBackground(bgColorTop);
+        check1.setForeground(fgColor);
+        check1.addActionListener(this);
+        latencyCheck = check1;
+
         JLabel label1 = new JLabel();
         label1.setPreferredSize(new Dimension(350, 40));
         label1.setFont(new Font("Arial", Font.BOLD, 18));
@@ -131,15 +159,19 @@ public class ControlPanel extends JFrame implements ActionListener {
         topPanel.add(combo1);
         topPanel.add(combo2);
         topPanel.add(button1);
+        topPanel.add(button4);
+        topPanel.add(button5);
         topPanel.add(button2);
         topPanel.add(button3);
+        topPanel.add(check1);
         topPanel.add(label1);
 
         add(topPanel, BorderLayout.PAGE_START);
 
-        MapView map = new MapView(this, data);
+        MapView map = new MapView(data);
         map.setPreferredSize(new Dimension(200, 718));
         add(map, BorderLayout.LINE_START);
+        scheduler.add(map);
 
         centerPanel = new JPanel();
         centerPanel.setLayout(new BoxLayout(centerPanel, BoxLayout.X_AXIS));
@@ -158,93 +190,79 @@ public class ControlPanel extends JFrame implements ActionListener {
     }
 
     /**
-     * Check whether the player for the given address exists in the game?
+     * When a new player is added to the game data, the player view is added
+     * to the user interface. It also updates the help text.
+     * Since this is invoked from the radio thread, the user interface
+     * is updated in the event dispatch thread.
      *
-     * @param addr
-     * @return
-     */
-    public boolean hasPlayer(String addr) {
-        return data.getPlayers().containsKey(addr);
-    }
-
-    /**
-     * Add a new player for the given address. It adds the player in the game
-     * data model as well as the view. It also updates the help text.
-     * Finally it calls the callback on application to set the new player's
-     * color.
-     *
-     * @param addr
+     * @param player
      */
-    public void addPlayer(String addr) {
-        System.out.println("added " + addr);
-        PlayerData player = data.addPlayer(addr);
-        PlayerView playerView = new PlayerView(data, player);
-        playerViews.put(addr, playerView);
-        
-        if (!data.isStarted()) {
-            startgameButton.setEnabled(true);
-            statusLabel.setText("Click on \"Start Game\" to start");
-        }
-        centerPanel.add(playerView, -1);
-        repaint();
-        validate();
-
-        if (listener != null) {
-            listener.sendColor(addr, player.getCarColor());
-        }
+    public void added(final PlayerData player) {
+        System.out.println("added " + player.getAddr());
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                PlayerView playerView = new PlayerView(data, player, tiles);
+                playerView.setOverlay(latencyCheck.isSelected());
+                playerViews.put(player.getAddr(), playerView);
+
+                if (!data.isStarted()) {
+                    startgameButton.setEnabled(true);
+                    statusLabel.setText("Click on \"Start Game\" to start");
+                }
+                centerPanel.add(playerView, -1);
+                repaint();
+                validate();
+                scheduler.add(playerView);
+            }
+        });
     }
 
     /**
-     * When a player is removed from the game, as detected by the MapView on
+     * When a player is removed from the game, as detected by the simulation on
      * inactivity of player actions, the player view is removed from the
      * user interface also. The help text is updated as needed.
+     * Since this is invoked from the simulation thread, the user interface
+     * is updated in the event dispatch thread.
      *
      * @param player
      */
-    public void removed(PlayerData player) {
+    public void removed(final PlayerData player) {
         if (player != null) {
             System.out.println("removed " + player.getAddr());
-            PlayerView playerView = playerViews.get(player.getAddr());
-            playerViews.remove(player.getAddr());
-            
-            centerPanel.remove(playerView);
-            if (data.getPlayers().isEmpty()) {
-                data.stop();
-                statusLabel.setText("Start your SunSPOT(s) to join the game");
-            }
-            repaint();
-            validate();
-        }
-    }
-
-    /**
-     * The main application supplies the user action to this object. This object,
-     * forwards the action to the player data and makes that player active.
-     *
-     * @param addr
-     * @param xd
-     * @param yd
-     * @param zd
-     */
-    public void setAction(String addr, int xd, int yd, int zd) {
-        PlayerData player = data.getPlayers().get(addr);
-        if (player != null) {
-            player.setActivity();
-            if (!player.isCompletelyDamaged() && data.isStarted()) {
-                player.setAction(xd, yd, zd);
-            }
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    PlayerView playerView = playerViews.get(player.getAddr());
+                    playerViews.remove(player.getAddr());
+
+                    // stop drawing the view before removing it, which releases its buffers
+                    if (playerView != null) {
+                        scheduler.remove(playerView);
+                        centerPanel.remove(playerView);
+                    }
+                    if (!data.hasPlayers()) {
+                        data.stop();
+                        statusLabel.setText("Start your SunSPOT(s) to join the game");
+                    }
+                    repaint();
+                    validate();
+                }
+            });
         }
     }
 
     /**
      * When the user clicks on some user interface button, take appropriate
      * action. For example, newmap button causes creation of a new
-     * map data. The startgame button starts the game, and stop game
-     * button stops the game. When stopping, if there are players in the
-     * game, it prompts the user for confirmation. Depending on user action,
-     * the buttons are enabled or disabled. For example, the stop button
-     * is disabled if game is not started, whereas the newmap, combo boxes
-     * as well as startgame buttons are disabled if game is started.
+     * map data. The loadmap and savemap buttons load the map data from
+     * and save it to a map file chosen by the user. The startgame button
+     * starts the game, and stop game button stops the game. When stopping,
+     * if there are players in the game, it prompts the user for
+     * confirmation. Depending on user action, the buttons are enabled or
+     * disabled. For example, the stop button is disabled if game is not
+     * started, whereas the newmap, combo boxes as well as startgame
+     * buttons are disabled if game is started.
+     * The latency check box shows or hides the input latency overlay on
+     * the player views.
      *
      * @param e
      */
@@ -253,8 +271,36 @@ public class ControlPanel extends JFrame implements ActionListener {
             data.setMapData(MapData.createRandom((String) maptypeCombo.getSelectedItem(),
                                                  (String) maplevelCombo.getSelectedItem()));
         }
+        else if ("loadmap".equals(e.getActionCommand())) {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                try {
+                    data.setMapData(MapFile.load(chooser.getSelectedFile().getPath()));
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(this, "Cannot load the map: " + ex.getMessage(),
+                            null, JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }
+        else if ("savemap".equals(e.getActionCommand())) {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+                try {
+                    MapFile.save(data.getMapData(), chooser.getSelectedFile().getPath());
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(this, "Cannot save the map: " + ex.getMessage(),
+                            null, JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }
+        else if ("latency".equals(e.getActionCommand())) {
+            for (Iterator<PlayerView> it=playerViews.values().iterator(); it.hasNext(); ) {
+                it.next().setOverlay(latencyCheck.isSelected());
+            }
+        }
         else if ("startgame".equals(e.getActionCommand())) {
             newmapButton.setEnabled(false);
+            loadmapButton.setEnabled(false);
             maptypeCombo.setEnabled(false);
             maplevelCombo.setEnabled(false);
             startgameButton.setEnabled(false);
@@ -263,7 +309,7 @@ public class ControlPanel extends JFrame implements ActionListener {
             data.start();
         }
         else if ("stopgame".equals(e.getActionCommand())) {
-            if (!data.getPlayers().isEmpty()) {
+            if (data.hasPlayers()) {
                 int selection = JOptionPane.showConfirmDialog(this, 
                         "Stop the game and lose this game data?",
                         null, JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
@@ -274,6 +320,7 @@ public class ControlPanel extends JFrame implements ActionListener {
 
             maptypeCombo.setEnabled(true);
             newmapButton.setEnabled(true);
+            loadmapButton.setEnabled(true);
             maplevelCombo.setEnabled(true);
             startgameButton.setEnabled(true);
             stopgameButton.setEnabled(false);
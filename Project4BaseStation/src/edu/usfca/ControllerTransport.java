@@ -0,0 +1,51 @@
+package edu.usfca;
+
+import java.io.IOException;
+
+/**
+ * The transport between the base station and the controllers. The base
+ * station receives the tilt packets from the controllers, and broadcasts
+ * the command packets such as SET_COLOR to all the controllers. The packet
+ * content is same for all the transports, only the way it is carried differs.
+ *
+ * The controller is identified by its address in the SPOT IEEE address
+ * format, e.g., 0014.4F01.0000.1234, so that the address can be used in the
+ * command packets.
+ *
+ * @see RadiogramTransport
+ * @see UdpTransport
+ * @author mamta
+ */
+public interface ControllerTransport {
+
+    /**
+     * Receive the next packet from any controller. It blocks until a packet
+     * is received.
+     *
+     * @param buffer The buffer to copy the packet content to.
+     * @return The length of the packet copied in the buffer.
+     * @throws IOException
+     */
+    public int receive(byte[] buffer) throws IOException;
+
+    /**
+     * Get the source address of the last received packet.
+     *
+     * @return
+     */
+    public String getAddress();
+
+    /**
+     * Broadcast a command packet to all the controllers.
+     *
+     * @param buffer The packet content.
+     * @param length The length of the packet.
+     * @throws IOException
+     */
+    public void send(byte[] buffer, int length) throws IOException;
+
+    /**
+     * Close the transport.
+     */
+    public void close();
+}
@@ -0,0 +1,192 @@
+package edu.usfca;
+
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+
+/**
+ * The single thread that draws all the views of the user interface, so that
+ * the map view and the player views are drawn together in every frame,
+ * instead of each view having its own repaint timer. The frames are paced
+ * at a fixed interval. If drawing the views takes longer than the interval,
+ * the frames that are late are skipped, instead of drawing them back-to-back
+ * to catch up.
+ *
+ * The views are added when they are shown and removed when they are
+ * dropped from the user interface. A removed view is never drawn again, so
+ * that its buffers can be released.
+ *
+ * The duration of drawing each view is recorded in the metrics. Every few
+ * frames, a task is also put in the event queue to record how long it waits
+ * before the event dispatch thread runs it.
+ *
+ * @see FrameView
+ * @author mamta
+ */
+public class FrameScheduler implements Runnable {
+    // how often in milliseconds to draw a frame
+    public static final int FRAME_INTERVAL = 20;
+
+    // after how many frames to measure the event queue delay
+    private static final int DELAY_FRAMES = 5;
+
+    // the views that are drawn, copied when changed
+    private FrameView[] views = new FrameView[0];
+
+    // the drawing thread
+    private Thread thread = null;
+
+    // the number of frames drawn and skipped
+    private volatile long frames = 0;
+    private volatile long skipped = 0;
+
+    // the metrics of the game
+    private Metrics metrics;
+
+    // the event queue delay metric, and the time the delay task was put
+    // in the queue, or 0 if it is not in the queue
+    private Histogram uiDelay;
+    private volatile long posted = 0;
+
+    // the task that records the event queue delay
+    private Runnable delayTask = new Runnable() {
+        public void run() {
+            uiDelay.record((System.nanoTime() - posted) / 1000);
+            posted = 0;
+        }
+    };
+
+    /**
+     * Construct a new scheduler.
+     *
+     * @param metrics The metrics to record the drawing to.
+     */
+    public FrameScheduler(Metrics metrics) {
+        this.metrics = metrics;
+        uiDelay = metrics.getHistogram(Metrics.UI_DELAY);
+    }
+
+    /**
+     * Add the view to be drawn in every frame. The view should already be
+     * added to the user interface.
+     *
+     * @param view
+     */
+    public synchronized void add(FrameView view) {
+        view.setPaintTime(metrics.getHistogram(Metrics.PAINT + view.getClass().getSimpleName()));
+        FrameView[] v = new FrameView[views.length + 1];
+        System.arraycopy(views, 0, v, 0, views.length);
+        v[views.length] = view;
+        views = v;
+    }
+
+    /**
+     * Remove the view. It waits for the frame that is being drawn, if any,
+     * so that the view is not drawn after this returns, and it can be
+     * removed from the user interface.
+     *
+     * @param view
+     */
+    public synchronized void remove(FrameView view) {
+        for (int i=0; i<views.length; ++i) {
+            if (views[i] == view) {
+                FrameView[] v = new FrameView[views.length - 1];
+                System.arraycopy(views, 0, v, 0, i);
+                System.arraycopy(views, i+1, v, i, views.length - i - 1);
+                views = v;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Start the drawing thread.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "FrameScheduler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the drawing thread, and wait for it to finish.
+     */
+    public void stop() {
+        Thread th;
+        synchronized (this) {
+            th = thread;
+            thread = null;
+        }
+        if (th != null) {
+            th.interrupt();
+            try {
+                th.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get the number of frames drawn.
+     *
+     * @return
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Get the number of frames skipped because drawing was late.
+     *
+     * @return
+     */
+    public long getSkippedFrames() {
+        return skipped;
+    }
+
+    /**
+     * Draw all the views once.
+     */
+    public synchronized void renderFrame() {
+        for (int i=0; i<views.length; ++i)
+            views[i].renderFrame();
+
+        // make sure the frame is shown now, on systems that buffer the drawing
+        Toolkit.getDefaultToolkit().sync();
+        ++frames;
+
+        if (frames % DELAY_FRAMES == 0 && posted == 0) {
+            posted = System.nanoTime();
+            EventQueue.invokeLater(delayTask);
+        }
+    }
+
+    /**
+     * The thread method to draw a frame at every interval. When a frame is
+     * late by more than the interval, the next frame times are moved ahead
+     * and the frames in between are skipped.
+     */
+    public void run() {
+        long interval = FRAME_INTERVAL * 1000000L;
+        long next = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            renderFrame();
+
+            next += interval;
+            long now = System.nanoTime();
+            if (now - next > 0) {
+                long late = (now - next) / interval + 1;
+                skipped += late;
+                next += late * interval;
+            }
+            try {
+                Thread.sleep((next - now) / 1000000L, (int) ((next - now) % 1000000L));
+            }
+            catch (InterruptedException ex) {
+                break;
+            }
+        }
+    }
+}
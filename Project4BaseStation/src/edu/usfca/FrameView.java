@@ -0,0 +1,149 @@
+package edu.usfca;
+
+import java.awt.Canvas;
+import java.awt.Graphics;
+import java.awt.image.BufferStrategy;
+
+/**
+ * The view that is drawn by the frame scheduler using active rendering,
+ * instead of being repainted by the event dispatch thread. A frame is drawn
+ * to the back buffer of the buffer strategy of the view, and then shown at
+ * once. The buffer strategy is created when the view is added to the user
+ * interface, and released when it is removed.
+ *
+ * @see FrameScheduler
+ * @author mamta
+ */
+public abstract class FrameView extends Canvas {
+    // the number of buffers, i.e., the front and one back buffer
+    private static final int BUFFERS = 2;
+
+    // the metric of the frame drawing duration, if any
+    private Histogram paintTime = null;
+
+    /**
+     * Construct a new view. The repaint requests of the system are ignored,
+     * since the frame scheduler draws the view anyway.
+     */
+    public FrameView() {
+        setIgnoreRepaint(true);
+    }
+
+    /**
+     * Draw the view.
+     *
+     * @param g
+     */
+    public abstract void render(Graphics g);
+
+    /**
+     * Set the metric to record the duration of drawing a frame.
+     *
+     * @param paintTime
+     */
+    void setPaintTime(Histogram paintTime) {
+        this.paintTime = paintTime;
+    }
+
+    /**
+     * Draw a frame to the back buffer and show it. It is drawn again if the
+     * buffer contents were lost while drawing. The duration is recorded in
+     * the metrics.
+     *
+     * @return false if the view cannot be drawn, e.g., it is not displayed.
+     */
+    boolean renderFrame() {
+        BufferStrategy strategy = getBufferStrategy();
+        if (strategy == null || !isDisplayable() || getWidth() <= 0 || getHeight() <= 0)
+            return false;
+
+        long start = System.nanoTime();
+        long rendered;
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                try {
+                    render(g);
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            rendered = System.nanoTime();
+            strategy.show();
+        } while (strategy.contentsLost());
+        long shown = System.nanoTime();
+        if (paintTime != null)
+            paintTime.record((shown - start) / 1000);
+        frameShown(rendered, shown);
+        return true;
+    }
+
+    /**
+     * The frame drawn by renderFrame is shown. The sub-class can override
+     * this, e.g., to trace the latency.
+     *
+     * @param rendered The time the frame was drawn, from System.nanoTime.
+     * @param shown The time the frame was shown.
+     */
+    protected void frameShown(long rendered, long shown) {
+    }
+
+    /**
+     * Utility method to fill a circle, the same as fillOval with equal
+     * width and height, but as one rectangle per row, since fillOval creates
+     * a shape every time it is drawn.
+     *
+     * @param g
+     * @param x The left of the circle.
+     * @param y The top of the circle.
+     * @param diameter
+     */
+    protected static void fillCircle(Graphics g, int x, int y, int diameter) {
+        double r = diameter / 2.0;
+        for (int i=0; i<diameter; ++i) {
+            double dy = i + 0.5 - r;
+            int half = (int) Math.round(Math.sqrt(r*r - dy*dy));
+            g.fillRect((int) (x + r) - half, y + i, 2*half, 1);
+        }
+    }
+
+    /**
+     * Create the buffer strategy when the view is displayed.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        createBufferStrategy(BUFFERS);
+    }
+
+    /**
+     * Release the buffers when the view is no longer displayed.
+     */
+    @Override
+    public void removeNotify() {
+        BufferStrategy strategy = getBufferStrategy();
+        if (strategy != null)
+            strategy.dispose();
+        super.removeNotify();
+    }
+
+    /**
+     * Draw the view when it is painted otherwise, e.g., when printed.
+     *
+     * @param g
+     */
+    @Override
+    public void paint(Graphics g) {
+        render(g);
+    }
+
+    /**
+     * Draw the view without clearing it first, which would flicker.
+     *
+     * @param g
+     */
+    @Override
+    public void update(Graphics g) {
+        paint(g);
+    }
+}
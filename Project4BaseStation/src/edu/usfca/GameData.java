@@ -3,6 +3,7 @@ package edu.usfca;
 import java.awt.Color;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.io.IOException;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
@@ -18,39 +19,135 @@ public class GameData {
     private static final Color[] colors = {Color.GREEN, Color.YELLOW, Color.CYAN, Color.ORANGE, Color.RED};
 
     // whether the game is started.
-    private boolean started = false;
+    private volatile boolean started = false;
 
-    // the start time
-    private long startTime = System.currentTimeMillis();
+    // the start time in the simulation time
+    private volatile long startTime = 0;
 
     // collection of all the active players
-    private Map<String, PlayerData> players;
+    private PlayerRegistry players = new PlayerRegistry();
+
+    // the car state of all the players, updated together by the simulation
+    private PlayerStore store = new PlayerStore(16);
 
     // the associated map data
-    private MapData map = null;
+    private volatile MapData map = null;
 
-    // the listener application that receives player removed event when
-    // stop method is invoked.
-    private ControlPanel listener;
+    // the listener application that receives player added event, and player
+    // removed event when stop method is invoked or when the player is inactive.
+    private GameListener listener;
 
     // the start index the player is cached so that if the player
     // re-joins a game, his color and initial position is intact.
     private Map<String, Integer> startPosition = new Hashtable<String, Integer>();
 
+    // the broad phase for the car-to-car collisions
+    private SweepAndPrune cars = new SweepAndPrune();
+
+    // the metrics of the game
+    private Metrics metrics = new Metrics();
+
+    // the committed players are added to and removed from the broad phase,
+    // and the slot of a removed player is released for reuse once the
+    // player is detached from it
+    private PlayerRegistry.Listener registryListener = new PlayerRegistry.Listener() {
+        public void joined(PlayerData player) {
+            cars.add(player);
+            if (recorder != null)
+                recorder.joined(player);
+        }
+        public void left(PlayerData player) {
+            if (recorder != null)
+                recorder.left(player);
+            cars.remove(player);
+            release(player);
+        }
+        public void dropped(PlayerData player) {
+            release(player);
+        }
+    };
+
+    // the colliding cars are damaged the same way as colliding with obstructions
+    private SweepAndPrune.Listener carListener = new SweepAndPrune.Listener() {
+        public void collided(PlayerData player1, PlayerData player2) {
+            player1.damaged();
+            player2.damaged();
+        }
+    };
+
+    // the simulation engine that advances this game
+    private GameSimulation simulation;
+
+    // the recorder of the simulation input, if any
+    private volatile GameRecorder recorder = null;
+
+    /**
+     * Construct a new game data, and start its simulation.
+     */
+    public GameData(GameListener listener) {
+        this(listener, true);
+    }
+
     /**
-     * Construct a new game data
+     * Construct a new game data. If realtime is true, the simulation thread
+     * is started. Otherwise the simulation is not started, and the caller
+     * runs its steps, e.g., to replay a recorded game.
+     *
+     * @param listener
+     * @param realtime
      */
-    public GameData(ControlPanel listener) {
+    public GameData(GameListener listener, boolean realtime) {
         this.listener = listener;
+        simulation = new GameSimulation(this);
+        if (realtime)
+            simulation.start();
+    }
+
+    /**
+     * Get the simulation engine of this game.
+     *
+     * @return
+     */
+    public GameSimulation getSimulation() {
+        return simulation;
     }
     
+    /**
+     * Set the recorder of the simulation input, or null to stop recording.
+     * It waits for any running simulation step to complete.
+     *
+     * @param value
+     */
+    public synchronized void setRecorder(GameRecorder value) {
+        recorder = value;
+    }
+
+    /**
+     * Get the recorder of the simulation input.
+     *
+     * @return
+     */
+    public GameRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Get the store that has the car state of all the players.
+     *
+     * @return
+     */
+    public PlayerStore getStore() {
+        return store;
+    }
+
     /**
      * Set the map data for this game. Any previous map data is cleaned up.
+     * It waits for any running simulation step to complete.
      *
      * @param listener
      * @param value
      */
-    public void setMapData(MapData value) {
+    public synchronized void setMapData(MapData value) {
         if (map != null)
             map.cleanup();
         map = value;
@@ -65,44 +162,81 @@ public class GameData {
     }
 
     /**
-     * Set the list of players for this game.
+     * Get the list of players for this game, as of the last simulation step.
+     * The list does not change while it is used, but the returned array must
+     * not be modified.
      *
-     * @param value
+     * @return
      */
-    public void setPlayers(Map<String, PlayerData> value) {
-        players = value;
+    public PlayerData[] getPlayers() {
+        return players.snapshot();
     }
 
     /**
-     * Get the list of players for this game.
+     * Get the player for the given address.
      *
-     * @return
+     * @param addr
+     * @return The player, or null if there is no such player.
+     */
+    public PlayerData getPlayer(String addr) {
+        return players.get(addr);
+    }
+
+    /**
+     * Apply the players added and removed since the last simulation step to
+     * the list of players. This is invoked by the simulation before a step.
      */
-    public Map<String, PlayerData> getPlayers() {
-        return players;
+    public void commitPlayers() {
+        players.commit(registryListener);
     }
 
     /**
-     * Set the game in start state.
+     * Set the game in start state. It waits for any running simulation step
+     * to complete, so that the game starts between two steps. The metrics
+     * are cleared.
      */
-    public void start() {
+    public synchronized void start() {
         started = true;
-        startTime = System.currentTimeMillis();
+        startTime = store.getTime();
+        metrics.reset();
     }
 
     /**
-     * Stop the game removing any active players.
+     * Stop the game removing any active players. It waits for any running
+     * simulation step to complete, the same as start, so that the game stops
+     * between two steps. If the game was started, its metrics are appended
+     * to the metrics file, after the lock is released.
      */
     public void stop() {
-        started = false;
-        
-        for (Iterator<PlayerData> it=players.values().iterator(); it.hasNext(); ) {
-            PlayerData player = it.next();
-            it.remove();
-            listener.removed(player);
+        boolean wasStarted;
+        long duration;
+        synchronized (this) {
+            wasStarted = started;
+            started = false;
+            duration = getDuration();
+
+            for (Iterator<PlayerData> it=players.values().iterator(); it.hasNext(); ) {
+                remove(it.next());
+            }
+        }
+
+        if (wasStarted) {
+            try {
+                metrics.dump(Metrics.DUMP_FILE, "game of " + duration / 1000.0 + " seconds");
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
         }
     }
 
+    /**
+     * Get the metrics of the game.
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Has the game started?
      * @return
@@ -112,11 +246,11 @@ public class GameData {
     }
 
     /**
-     * Get the duration since the start of the game.
+     * Get the duration since the start of the game in the simulation time.
      * @return
      */
     public long getDuration() {
-        return (System.currentTimeMillis() - startTime);
+        return (store.getTime() - startTime);
     }
 
     /**
@@ -124,14 +258,25 @@ public class GameData {
      * @return
      */
     public boolean hasPlayers() {
-        return players.size() > 0;
+        return !players.isEmpty();
+    }
+
+    /**
+     * Check whether the player for the given address exists in the game?
+     *
+     * @param addr
+     * @return
+     */
+    public boolean hasPlayer(String addr) {
+        return players.contains(addr);
     }
 
     /**
      * Add a new player to the game data. If the player's index was
      * cached it is used, otherwise a new index is created based on
      * the current players count. The index determines the player's
-     * color and start position in the map.
+     * color and start position in the map. The listener is informed
+     * about the new player.
      * @param addr
      * @return
      */
@@ -142,15 +287,138 @@ public class GameData {
             index = startPosition.get(addr).intValue();
         }
         else {
-            startPosition.put(addr, new Integer(index));
+            startPosition.put(addr, Integer.valueOf(index));
         }
+        return addPlayer(addr, index);
+    }
+
+    /**
+     * Add a new player to the game data using the given start index. This
+     * is used to replay a recorded game with the recorded start index. An
+     * existing player of the same address is replaced, and the listener is
+     * informed that it was removed before the new one is added.
+     *
+     * @param addr
+     * @param index
+     * @return
+     */
+    public PlayerData addPlayer(String addr, int index) {
         Point pos = map.getStart(index);
         Color color = colors[index % colors.length];
-        PlayerData player = new PlayerData(addr, color, pos);
-        players.put(addr, player);
+        PlayerData player;
+        PlayerData old;
+        synchronized (this) {
+            // the store is not grown while a simulation step runs, and the
+            // join is queued before a step can commit, or release, the slot
+            player = new PlayerData(addr, color, pos, store, index);
+            old = players.add(player);
+        }
+        // the replaced player of the same address is removed
+        if (old != null)
+            listener.removed(old);
+        listener.added(player);
         return player;
     }
 
+    /**
+     * Release the slot of a removed player. The player is detached from the
+     * store first, so that a view that still draws the player does not draw
+     * the car of a new player that gets the slot.
+     *
+     * @param player
+     */
+    private void release(PlayerData player) {
+        player.detach();
+        store.release(player.getSlot());
+    }
+
+    /**
+     * Remove the player from the game, and inform the listener. The player
+     * is removed from the list of players and the car-to-car collision
+     * check before the next simulation step.
+     *
+     * @param player
+     */
+    public void remove(PlayerData player) {
+        if (players.remove(player))
+            listener.removed(player);
+    }
+
+    /**
+     * The radio input from a player is supplied to this object. It
+     * publishes the input to the player's input mailbox, so that the
+     * simulation applies it in the next step. This must be invoked only
+     * by the radio thread.
+     *
+     * @param addr
+     * @param xd
+     * @param yd
+     * @param zd
+     */
+    public void setAction(String addr, int xd, int yd, int zd) {
+        PlayerData player = players.get(addr);
+        if (player != null) {
+            player.getInput().publish(xd, yd, zd);
+        }
+    }
+
+    /**
+     * The radio packet of several input samples from a player is supplied
+     * to this object. It publishes the samples to the player's input
+     * mailbox, so that the simulation applies them in the next step. This
+     * must be invoked only by the radio thread.
+     *
+     * @see InputMailbox#sample(int, int, int, int)
+     * @param addr
+     * @param samples The packed samples, oldest first.
+     * @param count
+     */
+    public void setSamples(String addr, int[] samples, int count) {
+        PlayerData player = players.get(addr);
+        if (player != null) {
+            player.getInput().publish(samples, count);
+        }
+    }
+
+    /**
+     * Take the latest input of the player published by the radio thread,
+     * if any. It makes that player active, and holds the action of every
+     * sample in the store from the time it was taken, to be applied by the
+     * updatePlayers at the control interval. The taken input is recorded, if
+     * recording. This is invoked by the simulation.
+     *
+     * @param player
+     */
+    public void applyInput(PlayerData player) {
+        InputMailbox input = player.getInput();
+        if (input.take()) {
+            player.getTrace().taken(input.getTime(), System.nanoTime());
+            player.setActivity();
+            int slot = player.getSlot();
+            for (int i=0; i<input.getCount(); ++i) {
+                int sample = input.getSample(i);
+                store.setInput(slot, InputMailbox.getX(sample), InputMailbox.getY(sample),
+                        InputMailbox.getZ(sample), InputMailbox.getAge(sample));
+            }
+            if (recorder != null)
+                recorder.input(player, input);
+        }
+    }
+
+    /**
+     * Apply the held actions for the duration and update the position of all the cars for
+     * the duration, in one pass over the store. This advances the simulation
+     * time. The action is ignored if the game is not started or the car is
+     * completely damaged. This is invoked by the simulation.
+     *
+     * @param duration
+     * @param started Whether the game is started, as seen by this step.
+     */
+    public void updatePlayers(int duration, boolean started) {
+        store.applyActions(0, store.size(), duration, started);
+        store.update(duration);
+    }
+
     /**
      * Check whether a player has collided.
      * It checks using the available map data.
@@ -161,4 +429,43 @@ public class GameData {
         Rectangle bounds = player.getCarRectangle();
         return (map != null ? map.hasCollided(bounds) : false);
     }
+
+    /**
+     * Check whether a player has hit the map during the last update, by
+     * sweeping the car along its move, so that a fast car does not pass
+     * through a thin obstruction. The car that hit is placed at the point
+     * of contact and damaged.
+     *
+     * @param player
+     * @return Return true if the player hit the map, else false.
+     */
+    public boolean checkCollision(PlayerData player) {
+        if (map == null)
+            return false;
+        double impact = player.sweep(map);
+        if (impact == MapData.NO_IMPACT)
+            return false;
+        player.collided(impact);
+        return true;
+    }
+
+    /**
+     * Check all the cars for collision with each other, and damage the
+     * colliding cars. The cars are checked using the sort and sweep broad
+     * phase, hence only the nearby cars are compared.
+     *
+     * @return The number of colliding pairs.
+     */
+    public int checkCarCollisions() {
+        return cars.update(carListener);
+    }
+
+    /**
+     * Get the number of pairs of cars compared in the last check.
+     *
+     * @return
+     */
+    public int getCarChecks() {
+        return cars.getChecks();
+    }
 }
@@ -0,0 +1,29 @@
+package edu.usfca;
+
+/**
+ * The listener that receives the player events of the game data. The
+ * ControlPanel implements it to add and remove the player views, and the
+ * headless Project4Server implements it to log the players.
+ *
+ * The events may be invoked from the radio thread or the simulation thread,
+ * hence the listener should not do any long blocking operation.
+ *
+ * @author mamta
+ */
+public interface GameListener {
+
+    /**
+     * A new player was added to the game.
+     *
+     * @param player
+     */
+    public void added(PlayerData player);
+
+    /**
+     * A player was removed from the game, either because of inactivity or
+     * because the game was stopped.
+     *
+     * @param player
+     */
+    public void removed(PlayerData player);
+}
@@ -0,0 +1,238 @@
+package edu.usfca;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The recorder that writes everything that goes into the simulation to a
+ * compact binary log, so that a game can be replayed later with exactly the
+ * same result. Every record is stamped with the number of the simulation step
+ * in which it was applied. The records are:
+ *
+ * MAP: a new map was used, with its type, level, random seed, and the file
+ * it was loaded from, if any.
+ * START: the game was started or stopped.
+ * JOIN: a player joined, with its slot in the player store, its start
+ * index and its address.
+ * LEAVE: the player in the slot left.
+ * INPUT: the tilt samples taken for the player in the slot, each packed
+ * with its age as in the input mailbox.
+ * END: the recording was closed.
+ *
+ * The records are put in a buffer, and the buffer is written to the file
+ * channel only when it is full or the recorder is flushed, so that recording
+ * does not slow down the simulation step. The recorder is used by the
+ * simulation thread, and closed by any other thread. Nothing is recorded
+ * after it is closed.
+ *
+ * @see GameReplay
+ * @author mamta
+ */
+public class GameRecorder {
+    // the magic number and version at the start of the log
+    static final int MAGIC = 0x52414345; // "RACE"
+    static final short VERSION = 8;
+
+    // the record types
+    static final byte MAP   = 1;
+    static final byte START = 2;
+    static final byte JOIN  = 3;
+    static final byte LEAVE = 4;
+    static final byte INPUT = 5;
+    static final byte END   = 6;
+
+    // the size of the record type and step number of every record
+    private static final int HEADER_SIZE = 9;
+
+    // the size of the buffer that is written at once
+    private static final int BUFFER_SIZE = 64*1024;
+
+    // the file channel of the log, and the buffer of records
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    // the step number of the current simulation step
+    private long tick = 0;
+
+    // the last recorded map and start state
+    private MapData map = null;
+    private boolean started = false;
+
+    /**
+     * Create a new log file, and write the log header.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public GameRecorder(String file) throws IOException {
+        channel = new FileOutputStream(file).getChannel();
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+    }
+
+    /**
+     * A new simulation step starts. It records the map and the start state
+     * if they changed since the last step.
+     *
+     * @param tick The number of the step.
+     * @param map The map used in this step.
+     * @param started Whether the game is started in this step.
+     */
+    public synchronized void step(long tick, MapData map, boolean started) {
+        if (channel == null)
+            return;
+        this.tick = tick;
+        if (map != this.map && map != null) {
+            this.map = map;
+            byte[] type = encode(map.getType());
+            byte[] level = encode(map.getLevel());
+            byte[] file = encode(map.getFile());
+            reserve(HEADER_SIZE + 8 + 2 + type.length + 2 + level.length + 2 + file.length);
+            header(MAP);
+            buffer.putLong(map.getSeed());
+            putBytes(type);
+            putBytes(level);
+            putBytes(file);
+        }
+        if (started != this.started) {
+            this.started = started;
+            reserve(HEADER_SIZE + 1);
+            header(START);
+            buffer.put((byte) (started ? 1 : 0));
+
+            // write the race to the file once it is stopped
+            if (!started)
+                flush();
+        }
+    }
+
+    /**
+     * The player joined the simulation.
+     *
+     * @param player
+     */
+    public synchronized void joined(PlayerData player) {
+        if (channel == null)
+            return;
+        byte[] addr = encode(player.getAddr());
+        reserve(HEADER_SIZE + 8 + 2 + addr.length);
+        header(JOIN);
+        buffer.putInt(player.getSlot());
+        buffer.putInt(player.getIndex());
+        putBytes(addr);
+    }
+
+    /**
+     * The player left the simulation.
+     *
+     * @param player
+     */
+    public synchronized void left(PlayerData player) {
+        if (channel == null)
+            return;
+        reserve(HEADER_SIZE + 4);
+        header(LEAVE);
+        buffer.putInt(player.getSlot());
+    }
+
+    /**
+     * The tilt samples were taken for the player.
+     *
+     * @param player
+     * @param input The input mailbox with the taken samples.
+     */
+    public synchronized void input(PlayerData player, InputMailbox input) {
+        if (channel == null)
+            return;
+        int count = input.getCount();
+        reserve(HEADER_SIZE + 5 + 4*count);
+        header(INPUT);
+        buffer.putInt(player.getSlot());
+        buffer.put((byte) count);
+        for (int i=0; i<count; ++i)
+            buffer.putInt(input.getSample(i));
+    }
+
+    /**
+     * Write the buffered records to the file.
+     */
+    public synchronized void flush() {
+        if (channel == null)
+            return;
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write the end record, and close the log file.
+     */
+    public synchronized void close() {
+        if (channel == null)
+            return;
+        // the end is after the last recorded step
+        ++tick;
+        reserve(HEADER_SIZE);
+        header(END);
+        flush();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Make room in the buffer for a record of the given size, writing the
+     * buffered records if needed.
+     *
+     * @param size
+     */
+    private void reserve(int size) {
+        if (buffer.remaining() < size)
+            flush();
+    }
+
+    /**
+     * Put the record type and the step number.
+     *
+     * @param type
+     */
+    private void header(byte type) {
+        buffer.put(type);
+        buffer.putLong(tick);
+    }
+
+    /**
+     * Put the length and the bytes of a string.
+     *
+     * @param value
+     */
+    private void putBytes(byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    /**
+     * Utility method to encode a string as UTF-8.
+     *
+     * @param value
+     * @return
+     */
+    private static byte[] encode(String value) {
+        try {
+            return (value != null ? value : "").getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package edu.usfca;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The headless application that replays a game recorded by the GameRecorder.
+ * The log is memory mapped, and its records are fed back to a game data
+ * whose simulation is not running on its own. Instead, the simulation steps
+ * are run back-to-back up to the step of every record, so the game is
+ * replayed as fast as possible instead of in real time. Since the maps are
+ * created again from their seed, or loaded again from their file, and the
+ * players get the same input in the same steps, the replayed game has the
+ * same result as the recorded one.
+ *
+ * @see GameRecorder
+ * @author mamta
+ */
+public class GameReplay implements GameListener {
+    // the memory mapped log
+    private ByteBuffer log;
+
+    // the game data that replays the log
+    private GameData data;
+
+    // the players by their slot in the recorded game
+    private PlayerData[] players = new PlayerData[16];
+
+    // the samples of the input record
+    private int[] samples = new int[InputMailbox.MAX_SAMPLES];
+
+    /**
+     * Open the recorded log file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public GameReplay(String file) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+        if (log.remaining() < 6 || log.getInt() != GameRecorder.MAGIC)
+            throw new IOException("not a game log: " + file);
+        if (log.getShort() != GameRecorder.VERSION)
+            throw new IOException("unsupported game log version: " + file);
+
+        data = new GameData(this, false);
+    }
+
+    /**
+     * Get the game data that replays the log.
+     *
+     * @return
+     */
+    public GameData getData() {
+        return data;
+    }
+
+    /**
+     * Replay the whole log. Every record is applied just before the step
+     * that it was recorded in.
+     *
+     * @return The number of steps run.
+     * @throws IOException
+     */
+    public long run() throws IOException {
+        GameSimulation simulation = data.getSimulation();
+
+        while (log.hasRemaining()) {
+            byte type = log.get();
+            long tick = log.getLong();
+            while (simulation.getTicks() < tick)
+                simulation.step();
+
+            switch (type) {
+            case GameRecorder.MAP:
+                long seed = log.getLong();
+                String mapType = getString();
+                String mapLevel = getString();
+                String mapFile = getString();
+                if (mapFile.length() > 0)
+                    data.setMapData(MapFile.load(mapFile));
+                else
+                    data.setMapData(MapData.createRandom(mapType, mapLevel, seed));
+                System.out.println("map " + mapType + " " + mapLevel);
+                break;
+            case GameRecorder.START:
+                if (log.get() != 0) {
+                    System.out.println("race started");
+                    data.start();
+                }
+                else {
+                    System.out.println("race stopped after " + data.getDuration() / 1000.0 + " seconds");
+                    data.stop();
+                }
+                break;
+            case GameRecorder.JOIN: {
+                int slot = log.getInt();
+                int index = log.getInt();
+                String addr = getString();
+                if (slot >= players.length) {
+                    PlayerData[] p = new PlayerData[Math.max(2 * players.length, slot + 1)];
+                    System.arraycopy(players, 0, p, 0, players.length);
+                    players = p;
+                }
+                players[slot] = data.addPlayer(addr, index);
+                break;
+            }
+            case GameRecorder.LEAVE: {
+                int slot = log.getInt();
+                PlayerData player = getPlayer(slot);
+                if (player != null) {
+                    data.remove(player);
+                    players[slot] = null;
+                }
+                break;
+            }
+            case GameRecorder.INPUT: {
+                PlayerData player = getPlayer(log.getInt());
+                int count = log.get();
+                if (count < 1 || count > samples.length)
+                    throw new IOException("invalid sample count " + count);
+                for (int i=0; i<count; ++i)
+                    samples[i] = log.getInt();
+                if (player != null)
+                    player.getInput().publish(samples, count);
+                break;
+            }
+            case GameRecorder.END:
+                return simulation.getTicks();
+            default:
+                throw new IOException("invalid record type " + type);
+            }
+        }
+        return simulation.getTicks();
+    }
+
+    /**
+     * Get the player for the recorded slot.
+     *
+     * @param slot
+     * @return The player, or null if there is no such player.
+     */
+    private PlayerData getPlayer(int slot) {
+        return (slot >= 0 && slot < players.length ? players[slot] : null);
+    }
+
+    /**
+     * Read the length and bytes of a string.
+     *
+     * @return
+     * @throws IOException
+     */
+    private String getString() throws IOException {
+        byte[] value = new byte[log.getShort()];
+        log.get(value);
+        return new String(value, "UTF-8");
+    }
+
+    /**
+     * Log the new player.
+     *
+     * @param player
+     */
+    public void added(PlayerData player) {
+        System.out.println("added " + player.getAddr());
+    }
+
+    /**
+     * Log the removed player along with its race result.
+     *
+     * @param player
+     */
+    public void removed(PlayerData player) {
+        if (player.hasFinished())
+            System.out.println("removed " + player.getAddr() + " finished in " + player.getFinishDuration() / 1000.0 + " seconds");
+        else if (player.isCompletelyDamaged())
+            System.out.println("removed " + player.getAddr() + " lost");
+        else
+            System.out.println("removed " + player.getAddr());
+    }
+
+    /**
+     * Replay the recorded log file given in the command line arguments.
+     *
+     * @param args the log file
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: GameReplay <file>");
+            return;
+        }
+
+        // no display is needed
+        System.setProperty("java.awt.headless", "true");
+
+        try {
+            GameReplay app = new GameReplay(args[0]);
+            long start = System.currentTimeMillis();
+            long ticks = app.run();
+            long duration = System.currentTimeMillis() - start;
+            System.out.println("replayed " + ticks * GameSimulation.TICK_INTERVAL / 1000.0
+                    + " seconds of game in " + duration / 1000.0 + " seconds");
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
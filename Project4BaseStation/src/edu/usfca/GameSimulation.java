@@ -0,0 +1,189 @@
+package edu.usfca;
+
+/**
+ * The simulation engine that advances the whole game: the players, the
+ * moving obstructions, the collisions, the finish line and the inactive
+ * players. It is owned by the GameData, and it is the only place where the
+ * game state is advanced. The views only read the state to display it.
+ *
+ * The simulation runs in its own thread on a fixed time step. The elapsed
+ * real time is added to an accumulator, and as many fixed steps as fit in
+ * the accumulator are run. So if the thread wakes up late, the missed steps
+ * are run back-to-back to catch up, and the game does not slow down.
+ * If it is too far behind, for example after the machine was suspended,
+ * the remaining backlog is dropped instead of running all of it at once.
+ *
+ * @author mamta
+ */
+public class GameSimulation implements Runnable {
+    // the fixed time step of the simulation in milliseconds
+    public static final int TICK_INTERVAL = 20;
+
+    // the fixed time step in nanoseconds
+    private static final long TICK_NANOS = TICK_INTERVAL * 1000000L;
+
+    // the maximum number of steps to run back-to-back to catch up
+    private static final int MAX_CATCH_UP_TICKS = 10;
+
+    // the game data that is simulated
+    private GameData data;
+
+    // whether the thread is running or not?
+    private volatile boolean running = false;
+    private Thread thread = null;
+
+    // the number of steps run so far
+    private volatile long ticks = 0;
+
+    // the metrics of the step duration and the collision checks
+    private Histogram stepTime;
+    private Histogram collisionChecks;
+
+    /**
+     * Construct a new simulation for the game data.
+     *
+     * @param data
+     */
+    public GameSimulation(GameData data) {
+        this.data = data;
+        stepTime = data.getMetrics().getHistogram(Metrics.STEP);
+        collisionChecks = data.getMetrics().getHistogram(Metrics.COLLISIONS);
+    }
+
+    /**
+     * Start the simulation thread.
+     */
+    public void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(this, "GameSimulation");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the simulation thread.
+     */
+    public void stop() {
+        if (thread != null) {
+            running = false;
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Get the number of steps run so far.
+     *
+     * @return
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * The thread method that runs the fixed steps using the accumulator and
+     * sleeps until the next step is due.
+     */
+    public void run() {
+        long last = System.nanoTime();
+        long accumulator = 0;
+
+        while (running) {
+            long now = System.nanoTime();
+            accumulator += now - last;
+            last = now;
+
+            int count = 0;
+            while (accumulator >= TICK_NANOS && count < MAX_CATCH_UP_TICKS) {
+                step();
+                accumulator -= TICK_NANOS;
+                ++count;
+            }
+
+            // too far behind, drop the backlog but keep the phase
+            if (accumulator >= TICK_NANOS)
+                accumulator %= TICK_NANOS;
+
+            try {
+                Thread.sleep((TICK_NANOS - accumulator) / 1000000L);
+            } catch (InterruptedException ex) {
+                continue; // that it will break if running is false
+            }
+        }
+    }
+
+    /**
+     * Advance the game by one fixed step. The moving obstructions are moved
+     * first. The latest input of every player is taken, and an inactive
+     * player is removed. Then all the cars are updated together, applying
+     * their input and moving them. Every car is then swept along its move
+     * for collision with the map, and checked for finish line crossing.
+     * Finally the cars are checked for collision with each other. The
+     * duration of the step and the number of collision checks are recorded
+     * in the metrics, and the latency trace of the input applied in this
+     * step is updated.
+     */
+    public void step() {
+        long start = System.nanoTime();
+        PlayerData[] players;
+        synchronized (data) {
+            MapData map = data.getMapData();
+            boolean started = data.isStarted();
+
+            // record the map and start state used by this step
+            GameRecorder recorder = data.getRecorder();
+            if (recorder != null)
+                recorder.step(ticks, map, started);
+
+            if (map != null)
+                map.step(TICK_INTERVAL);
+
+            // the players joined or left since the last step
+            data.commitPlayers();
+
+            players = data.getPlayers();
+            for (int i=0; i<players.length; ++i) {
+                PlayerData player = players[i];
+
+                // take the latest input from the radio thread
+                data.applyInput(player);
+
+                // if player is inactive, remove him
+                if (player.hasExpired()) {
+                    data.remove(player);
+                }
+            }
+
+            // apply the input and move all the cars in one pass
+            data.updatePlayers(TICK_INTERVAL, started);
+
+            if (map != null) {
+                for (int i=0; i<players.length; ++i) {
+                    PlayerData player = players[i];
+
+                    // if player has hit the map during the move, it is
+                    // placed at the point of contact and damaged
+                    data.checkCollision(player);
+
+                    // if player has finished the finish line
+                    if (player.getY() >= map.getFinish().getY()) {
+                        player.finished(data.getDuration());
+                    }
+                }
+            }
+
+            // damage the cars that collided with each other
+            data.checkCarCollisions();
+            collisionChecks.record((map != null ? players.length : 0) + data.getCarChecks());
+        }
+        ++ticks;
+
+        // the input applied in this step is now visible to the views
+        long now = System.nanoTime();
+        for (int i=0; i<players.length; ++i)
+            players[i].getTrace().stepped(now);
+        stepTime.record((now - start) / 1000);
+    }
+}
@@ -0,0 +1,261 @@
+package edu.usfca;
+
+import java.awt.Rectangle;
+
+/**
+ * The default collision index that divides the map bounds in a uniform grid
+ * of square cells. Each cell has a bucket of ids of the obstructions that
+ * overlap the cell. A query only looks at the buckets of the cells that the
+ * queried rectangle overlaps, hence the cost of a query depends on how
+ * crowded those cells are, and not on the total number of obstructions.
+ *
+ * The obstruction positions are stored in primitive arrays indexed by id,
+ * so that no object is created per obstruction. Anything outside the bounds
+ * is put in the nearest border cell. An obstruction that overlaps several
+ * cells is reported once by a query, using the query number stamped on each
+ * obstruction seen, so that a query does not allocate.
+ *
+ * The index is not synchronized. It is filled when the map is created, and
+ * after that it is moved and queried only by the game simulation.
+ *
+ * @author mamta
+ */
+public class GridCollisionIndex implements CollisionIndex {
+    // initial capacity of the obstruction arrays and of each bucket
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_BUCKET_CAPACITY = 4;
+
+    // the grid properties
+    private final int originX;
+    private final int originY;
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+
+    // the obstruction positions and size indexed by id
+    private int[] xs = new int[INITIAL_CAPACITY];
+    private int[] ys = new int[INITIAL_CAPACITY];
+    private int[] widths = new int[INITIAL_CAPACITY];
+    private int[] heights = new int[INITIAL_CAPACITY];
+    private int count = 0;
+
+    // the number of the last candidate query, and the query number that
+    // last saw each obstruction
+    private int queries = 0;
+    private int[] seen = new int[INITIAL_CAPACITY];
+
+    // the bucket of obstruction ids for each cell, and the number of ids in it
+    private final int[][] buckets;
+    private final int[] bucketSizes;
+
+    /**
+     * Construct a new grid covering the given bounds.
+     *
+     * @param bounds The map bounds.
+     * @param cellSize The width and height of a cell.
+     */
+    public GridCollisionIndex(Rectangle bounds, int cellSize) {
+        this.originX = bounds.x;
+        this.originY = bounds.y;
+        this.cellSize = cellSize;
+        this.columns = Math.max(1, (bounds.width + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (bounds.height + cellSize - 1) / cellSize);
+        buckets = new int[columns * rows][];
+        bucketSizes = new int[columns * rows];
+    }
+
+    public int add(int x, int y, int width, int height) {
+        if (count == xs.length) {
+            int capacity = 2 * xs.length;
+            xs = grow(xs, capacity);
+            ys = grow(ys, capacity);
+            widths = grow(widths, capacity);
+            heights = grow(heights, capacity);
+            seen = grow(seen, capacity);
+        }
+        int id = count++;
+        xs[id] = x;
+        ys[id] = y;
+        widths[id] = width;
+        heights[id] = height;
+        insert(id);
+        return id;
+    }
+
+    public void move(int id, int x, int y) {
+        if (id >= count)
+            return;
+
+        int w = widths[id];
+        int h = heights[id];
+
+        // only touch the buckets if the obstruction changed cells.
+        if (column(xs[id]) != column(x) || column(xs[id] + w - 1) != column(x + w - 1)
+         || row(ys[id]) != row(y) || row(ys[id] + h - 1) != row(y + h - 1)) {
+            delete(id);
+            xs[id] = x;
+            ys[id] = y;
+            insert(id);
+        }
+        else {
+            xs[id] = x;
+            ys[id] = y;
+        }
+    }
+
+    public Rectangle getBounds(int id, Rectangle result) {
+        result.setBounds(xs[id], ys[id], widths[id], heights[id]);
+        return result;
+    }
+
+    public boolean intersects(int x, int y, int width, int height) {
+        int c1 = column(x), c2 = column(x + width - 1);
+        int r1 = row(y), r2 = row(y + height - 1);
+
+        for (int r=r1; r<=r2; ++r) {
+            for (int c=c1; c<=c2; ++c) {
+                int cell = r * columns + c;
+                int[] bucket = buckets[cell];
+                for (int i=bucketSizes[cell]-1; i>=0; --i) {
+                    int id = bucket[i];
+                    if (x < xs[id] + widths[id] && xs[id] < x + width
+                     && y < ys[id] + heights[id] && ys[id] < y + height)
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int query(int x, int y, int width, int height, int[] result) {
+        if (++queries == 0) {
+            // the query number wrapped, forget what was seen
+            for (int i=0; i<count; ++i)
+                seen[i] = 0;
+            queries = 1;
+        }
+
+        int c1 = column(x), c2 = column(x + width - 1);
+        int r1 = row(y), r2 = row(y + height - 1);
+
+        int n = 0;
+        for (int r=r1; r<=r2; ++r) {
+            for (int c=c1; c<=c2; ++c) {
+                int cell = r * columns + c;
+                int[] bucket = buckets[cell];
+                for (int i=bucketSizes[cell]-1; i>=0; --i) {
+                    int id = bucket[i];
+                    if (seen[id] == queries)
+                        continue;
+                    seen[id] = queries;
+                    if (n < result.length)
+                        result[n] = id;
+                    ++n;
+                }
+            }
+        }
+        return n;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        for (int i=0; i<bucketSizes.length; ++i)
+            bucketSizes[i] = 0;
+        count = 0;
+    }
+
+    /**
+     * Put the obstruction id in the buckets of all the cells it overlaps.
+     * An empty obstruction never collides, hence it is not put in any bucket.
+     *
+     * @param id
+     */
+    private void insert(int id) {
+        if (widths[id] <= 0 || heights[id] <= 0)
+            return;
+
+        int c1 = column(xs[id]), c2 = column(xs[id] + widths[id] - 1);
+        int r1 = row(ys[id]), r2 = row(ys[id] + heights[id] - 1);
+
+        for (int r=r1; r<=r2; ++r) {
+            for (int c=c1; c<=c2; ++c) {
+                int cell = r * columns + c;
+                int[] bucket = buckets[cell];
+                if (bucket == null)
+                    bucket = buckets[cell] = new int[INITIAL_BUCKET_CAPACITY];
+                else if (bucketSizes[cell] == bucket.length)
+                    bucket = buckets[cell] = grow(bucket, 2 * bucket.length);
+                bucket[bucketSizes[cell]++] = id;
+            }
+        }
+    }
+
+    /**
+     * Remove the obstruction id from the buckets of all the cells it overlaps.
+     * The last id of a bucket is moved in place of the removed one.
+     *
+     * @param id
+     */
+    private void delete(int id) {
+        if (widths[id] <= 0 || heights[id] <= 0)
+            return;
+
+        int c1 = column(xs[id]), c2 = column(xs[id] + widths[id] - 1);
+        int r1 = row(ys[id]), r2 = row(ys[id] + heights[id] - 1);
+
+        for (int r=r1; r<=r2; ++r) {
+            for (int c=c1; c<=c2; ++c) {
+                int cell = r * columns + c;
+                int[] bucket = buckets[cell];
+                for (int i=bucketSizes[cell]-1; i>=0; --i) {
+                    if (bucket[i] == id) {
+                        bucket[i] = bucket[--bucketSizes[cell]];
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the grid column of the x position, clamped to the grid.
+     *
+     * @param x
+     * @return
+     */
+    private int column(int x) {
+        if (x < originX)
+            return 0;
+        int c = (x - originX) / cellSize;
+        return (c < columns ? c : columns - 1);
+    }
+
+    /**
+     * Get the grid row of the y position, clamped to the grid.
+     *
+     * @param y
+     * @return
+     */
+    private int row(int y) {
+        if (y < originY)
+            return 0;
+        int r = (y - originY) / cellSize;
+        return (r < rows ? r : rows - 1);
+    }
+
+    /**
+     * Utility method to copy an array to a larger array.
+     *
+     * @param array
+     * @param capacity
+     * @return
+     */
+    private static int[] grow(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+}
@@ -0,0 +1,193 @@
+package edu.usfca;
+
+/**
+ * The histogram of the values of a metric, e.g., the duration of a
+ * simulation step in microseconds. It uses a fixed number of buckets, so it
+ * takes the same memory however many values are recorded, and recording a
+ * value does not create any object.
+ *
+ * The buckets grow exponentially: values below 16 have a bucket each, and
+ * every power of two above that is split into 8 buckets. So a percentile is
+ * reported with an error of at most 1/8 of the value, for any value of a
+ * long.
+ *
+ * @author mamta
+ */
+public class Histogram implements HistogramMBean {
+    // the number of buckets per power of two, as a power of two
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    // the values below this have a bucket each
+    private static final int LINEAR = 2 * SUB_COUNT;
+
+    // the number of buckets to cover all non-negative long values
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    // the name of the metric
+    private String name;
+
+    // the count of values in every bucket
+    private long[] counts = new long[BUCKETS];
+
+    // the number, sum, smallest and largest of the values
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    // the time of the last interval recorded, or 0 if none
+    private long last = 0;
+
+    /**
+     * Construct a new empty histogram.
+     *
+     * @param name The name of the metric.
+     */
+    public Histogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the name of the metric.
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record a value. A negative value is recorded as 0.
+     *
+     * @param value
+     */
+    public synchronized void record(long value) {
+        if (value < 0)
+            value = 0;
+        ++counts[bucket(value)];
+        ++count;
+        sum += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    /**
+     * Record the time since the previous time given to this method, e.g.,
+     * the gap between two packets. Nothing is recorded the first time.
+     *
+     * @param time
+     */
+    public synchronized void recordInterval(long time) {
+        if (last != 0)
+            record(time - last);
+        last = time;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMin() {
+        return (count > 0 ? min : 0);
+    }
+
+    public synchronized long getMax() {
+        return (count > 0 ? max : 0);
+    }
+
+    public synchronized double getMean() {
+        return (count > 0 ? (double) sum / count : 0);
+    }
+
+    /**
+     * Get the value below which the given fraction of the values are. The
+     * largest value of the bucket is returned, but not above the largest
+     * recorded value.
+     *
+     * @param fraction The fraction from 0 to 1, e.g., 0.99 for the 99th percentile.
+     * @return
+     */
+    public synchronized long getPercentile(double fraction) {
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(fraction * count);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i=0; i<BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.max(min, Math.min(max, upper(i)));
+        }
+        return max;
+    }
+
+    public long getP50() {
+        return getPercentile(0.5);
+    }
+
+    public long getP90() {
+        return getPercentile(0.9);
+    }
+
+    public long getP99() {
+        return getPercentile(0.99);
+    }
+
+    public long getP999() {
+        return getPercentile(0.999);
+    }
+
+    public synchronized void reset() {
+        for (int i=0; i<BUCKETS; ++i)
+            counts[i] = 0;
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+        last = 0;
+    }
+
+    /**
+     * Get the summary of the histogram as text.
+     *
+     * @return
+     */
+    @Override
+    public synchronized String toString() {
+        return name + " count=" + count + " mean=" + Math.round(getMean()) + " min=" + getMin()
+                + " p50=" + getP50() + " p90=" + getP90() + " p99=" + getP99()
+                + " p999=" + getP999() + " max=" + getMax();
+    }
+
+    /**
+     * Get the bucket of a non-negative value.
+     *
+     * @param value
+     * @return
+     */
+    private static int bucket(long value) {
+        if (value < LINEAR)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Get the largest value of a bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    private static long upper(int bucket) {
+        if (bucket < LINEAR)
+            return bucket;
+        int exponent = (bucket - LINEAR) / SUB_COUNT + SUB_BITS + 1;
+        int sub = (bucket - LINEAR) % SUB_COUNT;
+        long lower = (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
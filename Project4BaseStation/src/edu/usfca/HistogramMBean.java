@@ -0,0 +1,48 @@
+package edu.usfca;
+
+/**
+ * The management interface of a histogram, so that the metrics can be read
+ * over JMX, e.g., using jconsole.
+ *
+ * @see Histogram
+ * @author mamta
+ */
+public interface HistogramMBean {
+    /**
+     * Get the number of recorded values.
+     * @return
+     */
+    public long getCount();
+
+    /**
+     * Get the smallest recorded value.
+     * @return
+     */
+    public long getMin();
+
+    /**
+     * Get the largest recorded value.
+     * @return
+     */
+    public long getMax();
+
+    /**
+     * Get the mean of the recorded values.
+     * @return
+     */
+    public double getMean();
+
+    /**
+     * Get the median, and the 90th, 99th and 99.9th percentile.
+     * @return
+     */
+    public long getP50();
+    public long getP90();
+    public long getP99();
+    public long getP999();
+
+    /**
+     * Clear all the recorded values.
+     */
+    public void reset();
+}
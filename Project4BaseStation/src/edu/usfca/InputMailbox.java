@@ -0,0 +1,224 @@
+package edu.usfca;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The mailbox that passes the latest input samples of a player from the radio
+ * thread to the simulation thread without any lock. The radio thread is the
+ * only writer, and publishes every packet of tilt samples as it arrives.
+ * The simulation thread is the only reader, and takes the latest packet once
+ * in every step. If several packets arrive between two steps, only the newest
+ * one is taken, and the others are counted as coalesced.
+ *
+ * A packet has up to MAX_SAMPLES samples, oldest first. Each sample (xd, yd,
+ * zd) is packed in an int along with its age, i.e., how many milliseconds
+ * before the packet was sent the sample was taken. An old three byte packet
+ * is one sample of age 0. Every packet is stamped with the time it is
+ * published, i.e., received, to trace its latency.
+ *
+ * The packet is protected by a version number, which is odd while the writer
+ * is writing the packet and even otherwise, and goes up by two for every
+ * packet. The reader reads the version before and after reading the packet,
+ * and takes the packet only if the version is even and did not change, so a
+ * half-written packet is never taken. Neither the writer nor the reader ever
+ * waits: if the writer is in the middle of writing, the reader leaves the
+ * sample for the next step.
+ *
+ * @author mamta
+ */
+public class InputMailbox {
+    // the maximum number of samples in a packet
+    public static final int MAX_SAMPLES = 8;
+
+    // the maximum age of a sample in milliseconds
+    public static final int MAX_AGE = 255;
+
+    // the version of the packet, odd while it is being written.
+    private volatile int version = 0;
+
+    // the published packet
+    private final AtomicIntegerArray samples = new AtomicIntegerArray(MAX_SAMPLES);
+    private volatile int count;
+    private volatile long time;
+
+    // the packet of one sample, used only by the writer
+    private int[] single = new int[1];
+
+    // the version of the last taken packet, used only by the reader
+    private int taken = 0;
+
+    // the last taken packet, used only by the reader
+    private int[] takenSamples = new int[MAX_SAMPLES];
+    private int takenCount;
+    private long takenTime;
+
+    // the number of packets that were replaced by a newer one before
+    // they were taken, used only by the reader
+    private long coalesced = 0;
+
+    /**
+     * Publish a new packet of one sample of age 0, stamped with the current
+     * time. This must be invoked by a single writer thread.
+     *
+     * @param xd
+     * @param yd
+     * @param zd
+     */
+    public void publish(int xd, int yd, int zd) {
+        single[0] = sample(0, xd, yd, zd);
+        publish(single, 1);
+    }
+
+    /**
+     * Publish a new packet of samples, stamped with the current time. This
+     * must be invoked by a single writer thread.
+     *
+     * @param packet The samples packed by the sample method, oldest first.
+     * @param length The number of samples, from 1 to MAX_SAMPLES.
+     */
+    public void publish(int[] packet, int length) {
+        int v = version;
+        version = v + 1;
+        for (int i=0; i<length; ++i)
+            samples.set(i, packet[i]);
+        this.count = length;
+        this.time = System.nanoTime();
+        version = v + 2;
+    }
+
+    /**
+     * Take the latest packet if a new one was published since the last take.
+     * This must be invoked by a single reader thread. The taken samples are
+     * available using getCount and getSample, and the newest one also using
+     * getX, getY and getZ.
+     *
+     * @return Return true if a new packet was taken, else false.
+     */
+    public boolean take() {
+        int v1 = version;
+        if (v1 == taken || (v1 & 1) != 0)
+            return false;
+
+        int n = count;
+        for (int i=0; i<n; ++i)
+            takenSamples[i] = samples.get(i);
+        long t = time;
+        if (version != v1)
+            return false;
+
+        coalesced += (v1 - taken) / 2 - 1;
+        taken = v1;
+        takenCount = n;
+        takenTime = t;
+        return true;
+    }
+
+    /**
+     * Get the sequence number of the last taken packet. The packets are
+     * numbered from 1 in the order they are published.
+     *
+     * @return
+     */
+    public int getSequence() {
+        return taken / 2;
+    }
+
+    /**
+     * Get the number of samples in the last taken packet.
+     *
+     * @return
+     */
+    public int getCount() {
+        return takenCount;
+    }
+
+    /**
+     * Get a sample of the last taken packet, as packed by the sample method.
+     *
+     * @param i The index of the sample, from 0 for the oldest one.
+     * @return
+     */
+    public int getSample(int i) {
+        return takenSamples[i];
+    }
+
+    /**
+     * Get the x tilt of the newest sample in the last taken packet.
+     *
+     * @return
+     */
+    public int getX() {
+        return getX(takenSamples[takenCount-1]);
+    }
+
+    /**
+     * Get the y tilt of the newest sample in the last taken packet.
+     *
+     * @return
+     */
+    public int getY() {
+        return getY(takenSamples[takenCount-1]);
+    }
+
+    /**
+     * Get the z tilt of the newest sample in the last taken packet.
+     *
+     * @return
+     */
+    public int getZ() {
+        return getZ(takenSamples[takenCount-1]);
+    }
+
+    /**
+     * Get the time the last taken packet was published, from System.nanoTime.
+     *
+     * @return
+     */
+    public long getTime() {
+        return takenTime;
+    }
+
+    /**
+     * Pack a sample in an int. The tilt is kept in a byte each, as sent by
+     * the SPOT, and the age is limited to MAX_AGE.
+     *
+     * @param age The milliseconds before the packet the sample was taken.
+     * @param xd
+     * @param yd
+     * @param zd
+     * @return
+     */
+    public static int sample(int age, int xd, int yd, int zd) {
+        age = Math.max(0, Math.min(age, MAX_AGE));
+        return (age << 24) | ((xd & 0xff) << 16) | ((yd & 0xff) << 8) | (zd & 0xff);
+    }
+
+    /**
+     * Utility methods to get the age and the tilt of a packed sample.
+     */
+    public static int getAge(int sample) {
+        return sample >>> 24;
+    }
+
+    public static int getX(int sample) {
+        return (byte) (sample >> 16);
+    }
+
+    public static int getY(int sample) {
+        return (byte) (sample >> 8);
+    }
+
+    public static int getZ(int sample) {
+        return (byte) sample;
+    }
+
+    /**
+     * Get the number of packets that were never taken because a newer one
+     * was published before the next take.
+     *
+     * @return
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+}
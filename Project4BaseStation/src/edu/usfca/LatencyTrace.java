@@ -0,0 +1,93 @@
+package edu.usfca;
+
+/**
+ * The trace of the latency of a player's input sample, from the time it is
+ * received from the SPOT to the time the first frame that shows its effect
+ * is on the screen. The latency is split into stages:
+ *
+ * queue: from the receive until the simulation takes the sample.
+ * simulation: from the take until the step that applied it is complete.
+ * render: from the end of the step until the player view has drawn the
+ * first frame started after it.
+ * present: from the end of drawing until the frame is shown.
+ *
+ * Only one sample of a player is traced at a time. The samples taken while
+ * a traced sample is not yet shown are not traced. The simulation thread
+ * starts the trace, and the drawing thread completes it. All the times are
+ * from System.nanoTime, and the stages are recorded in microseconds.
+ *
+ * @author mamta
+ */
+public class LatencyTrace {
+    // the names of the stage metrics, in the order of the stages
+    public static final String QUEUE = "latency.queue";
+    public static final String SIMULATION = "latency.simulation";
+    public static final String RENDER = "latency.render";
+    public static final String PRESENT = "latency.present";
+    public static final String TOTAL = "latency.total";
+    public static final String[] STAGES = { QUEUE, SIMULATION, RENDER, PRESENT, TOTAL };
+
+    // the receive and take time of the traced sample, 0 if none
+    private volatile long received = 0;
+    private volatile long taken = 0;
+
+    // the time the step that applied the traced sample was complete, 0 if not yet
+    private volatile long stepped = 0;
+
+    /**
+     * The simulation took the sample. The trace is started if there is no
+     * traced sample.
+     *
+     * @param received The time the sample was received.
+     * @param now
+     */
+    public void taken(long received, long now) {
+        if (this.received == 0 && received != 0) {
+            taken = now;
+            this.received = received;
+        }
+    }
+
+    /**
+     * The simulation step is complete.
+     *
+     * @param now
+     */
+    public void stepped(long now) {
+        if (received != 0 && stepped == 0)
+            stepped = now;
+    }
+
+    /**
+     * Check whether the traced sample is applied by a complete step, so
+     * that a frame started now shows its effect.
+     *
+     * @return
+     */
+    public boolean isStepped() {
+        return stepped != 0;
+    }
+
+    /**
+     * The frame that shows the effect of the traced sample is shown. The
+     * stages are recorded, and the trace is cleared, so the next sample
+     * can be traced.
+     *
+     * @param rendered The time the frame was drawn.
+     * @param presented The time the frame was shown.
+     * @param stages The histograms of the stages, in the order of STAGES.
+     */
+    public void shown(long rendered, long presented, Histogram[] stages) {
+        long r = received;
+        long s = stepped;
+        if (r == 0 || s == 0)
+            return;
+        stages[0].record((taken - r) / 1000);
+        stages[1].record((s - taken) / 1000);
+        stages[2].record((rendered - s) / 1000);
+        stages[3].record((presented - rendered) / 1000);
+        stages[4].record((presented - r) / 1000);
+        stepped = 0;
+        received = 0;
+    }
+}
@@ -0,0 +1,227 @@
+package edu.usfca;
+
+/**
+ * The monitor of the radio link of a SPOT, which tells a lost packet from a
+ * late one using the sequence number of every packet, and drops the late
+ * packets, since their samples are older than the ones already applied. It
+ * counts the packets received in order, lost, late and duplicated, and the
+ * jitter of the packet transit time, as in RTP: the difference between the
+ * arrival time and the SPOT tick of a packet, compared with the previous
+ * packet, smoothed over the last 16 or so packets.
+ *
+ * The sequence numbers of the newest WINDOW packets are remembered in a bit
+ * mask, so that a packet that arrives late is not counted as lost, and a
+ * duplicate is not counted as late. A packet further behind than that is
+ * late too, but can not be told from a duplicate, and is counted as late.
+ * A packet behind the newest one but with a newer tick, in wrapping 32 bit
+ * arithmetic, is taken as the first packet of a restarted SPOT, which
+ * numbers its packets from 0 again, while its clock goes on.
+ *
+ * The loss and late rate are checked in every period of PERIOD packets,
+ * and a warning is printed if either is above SATURATED, which tells that
+ * the channel is saturated before the players notice.
+ *
+ * @see Metrics
+ * @author mamta
+ */
+public class LinkMonitor implements LinkMonitorMBean {
+    // the number of newest sequence numbers remembered
+    private static final int WINDOW = 64;
+
+    // the number of packets sent in a period, after which the rates are checked
+    private static final int PERIOD = 100;
+
+    // the loss or late rate in a period that is reported as a saturated channel
+    private static final double SATURATED = 0.1;
+
+    // the name of the metric
+    private String name;
+
+    // the newest sequence number and its tick, and the received newest ones
+    private boolean synced = false;
+    private int highest;
+    private int highestTick;
+    private long window;
+
+    // the packet counters
+    private long received = 0;
+    private long lost = 0;
+    private long late = 0;
+    private long duplicates = 0;
+
+    // the counters at the start of the period
+    private long periodReceived = 0;
+    private long periodLost = 0;
+    private long periodLate = 0;
+
+    // the transit time of the previous packet, and the jitter
+    private boolean hasTransit = false;
+    private int transit;
+    private double jitter = 0;
+
+    /**
+     * Construct a new monitor.
+     *
+     * @param name The name of the metric.
+     */
+    public LinkMonitor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the name of the metric.
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * A packet arrived. It updates the counters and the jitter, and checks
+     * whether the packet is newer than all the packets before.
+     *
+     * @param seq The 16 bit sequence number of the packet.
+     * @param tick The SPOT time in milliseconds when the packet was sent.
+     * @param now The time in milliseconds when the packet arrived.
+     * @return Return true if the packet is new, else false if it is late or
+     * a duplicate, and should be dropped.
+     */
+    public synchronized boolean accept(int seq, int tick, long now) {
+        int t = (int) now - tick;
+        if (hasTransit)
+            jitter += (Math.abs(t - transit) - jitter) / 16;
+        transit = t;
+        hasTransit = true;
+
+        int diff = (short) (seq - highest);
+        if (synced && diff <= 0 && tick - highestTick <= 0) {
+            long bit = (diff > -WINDOW ? 1L << -diff : 0);
+            if ((window & bit) != 0) {
+                ++duplicates;
+            }
+            else {
+                // it was counted as lost when a newer one arrived
+                window |= bit;
+                if (lost > 0)
+                    --lost;
+                ++late;
+            }
+            return false;
+        }
+
+        if (synced && diff > 0) {
+            lost += diff - 1;
+            window = (diff < WINDOW ? window << diff : 0) | 1;
+        }
+        else {
+            window = 1;
+        }
+        synced = true;
+        highest = seq;
+        highestTick = tick;
+        ++received;
+        checkPeriod();
+        return true;
+    }
+
+    /**
+     * The SPOT restarted, e.g., it joined the game again. The next packet is
+     * taken as new, whatever its sequence number.
+     */
+    public synchronized void restart() {
+        synced = false;
+        hasTransit = false;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    public synchronized long getLate() {
+        return late;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized double getLossRate() {
+        return rate(lost, received + lost + late);
+    }
+
+    public synchronized double getLateRate() {
+        return rate(late, received + late);
+    }
+
+    public synchronized double getJitter() {
+        return jitter;
+    }
+
+    public synchronized void reset() {
+        received = 0;
+        lost = 0;
+        late = 0;
+        duplicates = 0;
+        periodReceived = 0;
+        periodLost = 0;
+        periodLate = 0;
+        jitter = 0;
+    }
+
+    /**
+     * Get the summary of the link as text.
+     *
+     * @return
+     */
+    @Override
+    public synchronized String toString() {
+        return name + " received=" + received + " lost=" + lost + " (" + percent(getLossRate())
+                + ") late=" + late + " (" + percent(getLateRate()) + ") duplicates=" + duplicates
+                + " jitter=" + Math.round(jitter) + "ms";
+    }
+
+    /**
+     * Check the loss and late rate at the end of a period.
+     */
+    private void checkPeriod() {
+        long r = received - periodReceived;
+        long l = lost - periodLost;
+        long d = late - periodLate;
+        if (r + l + d < PERIOD)
+            return;
+
+        double loss = rate(l, r + l + d);
+        double lateness = rate(d, r + d);
+        if (loss > SATURATED || lateness > SATURATED)
+            System.out.println("radio link saturated: " + name + " loss=" + percent(loss)
+                    + " late=" + percent(lateness) + " jitter=" + Math.round(jitter) + "ms");
+        periodReceived = received;
+        periodLost = lost;
+        periodLate = late;
+    }
+
+    /**
+     * Utility method to get a fraction, or 0 if the total is 0.
+     *
+     * @param count
+     * @param total
+     * @return
+     */
+    private static double rate(long count, long total) {
+        return (total > 0 ? (double) count / total : 0);
+    }
+
+    /**
+     * Utility method to format a fraction as a percentage.
+     *
+     * @param fraction
+     * @return
+     */
+    private static String percent(double fraction) {
+        return Math.round(fraction * 1000) / 10.0 + "%";
+    }
+}
@@ -0,0 +1,58 @@
+package edu.usfca;
+
+/**
+ * The management interface of the radio link monitor of a SPOT, so that the
+ * packet loss, reorder and jitter can be read over JMX, e.g., using jconsole.
+ *
+ * @see LinkMonitor
+ * @author mamta
+ */
+public interface LinkMonitorMBean {
+    /**
+     * Get the number of packets received in order.
+     * @return
+     */
+    public long getReceived();
+
+    /**
+     * Get the number of packets that never arrived.
+     * @return
+     */
+    public long getLost();
+
+    /**
+     * Get the number of packets that arrived after a newer one, and were
+     * dropped as stale.
+     * @return
+     */
+    public long getLate();
+
+    /**
+     * Get the number of packets that arrived again.
+     * @return
+     */
+    public long getDuplicates();
+
+    /**
+     * Get the fraction of the sent packets that were lost.
+     * @return
+     */
+    public double getLossRate();
+
+    /**
+     * Get the fraction of the arrived packets that were late.
+     * @return
+     */
+    public double getLateRate();
+
+    /**
+     * Get the smoothed variation of the packet transit time, in milliseconds.
+     * @return
+     */
+    public double getJitter();
+
+    /**
+     * Clear the counters.
+     */
+    public void reset();
+}
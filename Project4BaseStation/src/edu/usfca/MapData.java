@@ -2,9 +2,9 @@ package edu.usfca;
 
 import java.awt.Point;
 import java.awt.Rectangle;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * The map data contains the map dimensions, start and finish positions as well
@@ -15,6 +15,10 @@ import java.util.List;
  * To add a new map type, you can create a sub-class and install it in the
  * createRandom method.
  *
+ * All the randomness of a map comes from its seed, so that the same map can
+ * be created again using the type, level and seed of an earlier map. A map
+ * can also be saved to and loaded from a file using the MapFile.
+ *
  * @author mamta
  */
 public class MapData {
@@ -44,23 +48,93 @@ public class MapData {
     // default gap between initial car positions
     private static final int DEFAULT_CAR_GAP = 1000;
 
+    // default cell size of the collision index grid
+    private static final int DEFAULT_CELL_SIZE = 500;
+
+    // the snapshot of a map without obstructions
+    private static final Rectangle[] NO_OBSTRUCTIONS = new Rectangle[0];
+
+    // the ids of the moving obstructions of a map without any
+    private static final int[] NO_MOVING_OBSTRUCTIONS = new int[0];
+
+    // the time of impact of a sweep that does not hit anything
+    public static final double NO_IMPACT = Double.POSITIVE_INFINITY;
+
+    // the initial capacity of the candidates of a sweep
+    private static final int INITIAL_CANDIDATES = 64;
+
     // the map properties
     protected Rectangle bounds;
     protected Point finish;
     protected Point start;
     protected int initialDistance;
 
+    // the map type, difficulty level and random seed used to create the map
+    private String type;
+    private String level;
+    private long seed;
+
+    // the random generator of the map, seeded with the map seed
+    protected Random random;
+
+    // the file the map was loaded from, if any
+    private String file = null;
+
     // list of obstructions, typically defined by sub-classes
     protected List<Rectangle> obstructions = new LinkedList<Rectangle>();
 
+    // the collision index of the obstructions, created with the map
+    protected CollisionIndex index;
+
+    // the snapshot of the obstructions published to the views, created
+    // from the collision index when first needed if null.
+    private volatile Rectangle[] snapshot = null;
+
+    // the candidate ids and the obstruction bounds of a sweep, used only by
+    // the simulation, so that a sweep does not allocate
+    private int[] candidates = new int[INITIAL_CANDIDATES];
+    private Rectangle obstruction = new Rectangle();
+
     /**
-     * This method should be used to create a random map.
+     * This method should be used to create a random map. A new random seed
+     * is picked, which is available from the created map.
      *
      * @param type The map type.
      * @param level The difficulty level of the map.
      * @return
      */
     public static MapData createRandom(String type, String level) {
+        return createRandom(type, level, new Random().nextLong());
+    }
+
+    /**
+     * Create a random map using the given seed. The same type, level and
+     * seed always create the same map.
+     *
+     * @param type The map type.
+     * @param level The difficulty level of the map.
+     * @param seed The random seed.
+     * @return
+     */
+    public static MapData createRandom(String type, String level, long seed) {
+        MapData map = newInstance(type, level, seed);
+        map.createDefault();
+        map.addObstructions(level);
+        map.obstructionsAdded();
+        map.publishObstructions();
+        return map;
+    }
+
+    /**
+     * Create an empty map of the sub-class for the map type. The map
+     * properties and obstructions are not created yet.
+     *
+     * @param type The map type.
+     * @param level The difficulty level of the map.
+     * @param seed The random seed.
+     * @return
+     */
+    static MapData newInstance(String type, String level, long seed) {
         MapData map;
         if (RANDOM_BLOCKS.equals(type))
             map = new MapDataBlocks();
@@ -71,8 +145,10 @@ public class MapData {
         else
             map = new MapData();
 
-        map.createDefault();
-        map.addObstructions(level);
+        map.type = type;
+        map.level = level;
+        map.seed = seed;
+        map.random = new Random(seed);
         return map;
     }
 
@@ -91,6 +167,32 @@ public class MapData {
         start = new Point(0, DEFAULT_START_Y);
         finish = new Point(0, bounds.height + bounds.y - DEFAULT_FINISH_DISTANCE);
         initialDistance = DEFAULT_CAR_GAP / 2;
+        index = createIndex();
+    }
+
+    /**
+     * Create the collision index for the obstructions of this map. The default
+     * is a uniform grid over the map bounds. The sub-class may override this
+     * to install a different index.
+     *
+     * @return
+     */
+    protected CollisionIndex createIndex() {
+        return new GridCollisionIndex(bounds, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Add an obstruction to this map. The sub-class should use this instead of
+     * adding to the list of obstructions directly, so that the obstruction is
+     * also put in the collision index. The id of the obstruction in the index
+     * is same as its position in the list.
+     *
+     * @param o
+     * @return The id of the obstruction in the collision index.
+     */
+    protected int addObstruction(Rectangle o) {
+        obstructions.add(o);
+        return index.add(o.x, o.y, o.width, o.height);
     }
 
     /**
@@ -103,13 +205,102 @@ public class MapData {
         // nothing.
     }
 
+    /**
+     * All the obstructions have been added, either by addObstructions or
+     * by loading the map from a file. The sub-class may override this to
+     * prepare the obstructions, e.g., to pick the ones to move.
+     */
+    protected void obstructionsAdded() {
+        // nothing.
+    }
+
+    /**
+     * Advance the map by the duration of one simulation step. The sub-class
+     * with moving obstructions should override this to move them. The base
+     * does not have any moving obstructions.
+     *
+     * @param duration
+     */
+    public void step(int duration) {
+        // nothing.
+    }
+
+    /**
+     * Publish the snapshot of the obstructions for the views. The base
+     * creates the snapshot from the collision index only when the views
+     * first need it, since the obstructions never move, and a loaded map
+     * is used without any view by the headless server. The sub-class with
+     * moving obstructions should override this, and publish a copy after
+     * every move.
+     */
+    protected void publishObstructions() {
+        snapshot = null;
+    }
+
+    /**
+     * Publish the given snapshot of the obstructions. The snapshot must
+     * not be modified while the views may still draw it.
+     *
+     * @param value
+     */
+    protected void publish(Rectangle[] value) {
+        snapshot = value;
+    }
+
     /**
      * Remove all the obstructions in this map. The sub-class may override
      * this to do any additional cleanup if needed.
      */
     protected void removeObstructions() {
+        snapshot = NO_OBSTRUCTIONS;
         while (obstructions.size() > 0)
             obstructions.remove(0);
+        index.clear();
+    }
+
+    /**
+     * Get the map type.
+     *
+     * @return
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Get the difficulty level.
+     *
+     * @return
+     */
+    public String getLevel() {
+        return level;
+    }
+
+    /**
+     * Get the random seed used to create this map.
+     *
+     * @return
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Get the file this map was loaded from.
+     *
+     * @return The file name, or null if the map was not loaded.
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Set the file this map was loaded from.
+     *
+     * @param value
+     */
+    void setFile(String value) {
+        file = value;
     }
 
     /**
@@ -140,7 +331,9 @@ public class MapData {
     }
 
     /**
-     * Get the list of obstructions.
+     * Get the list of obstructions as added by the map generator. It is
+     * empty for a map loaded from a file. The list is owned by the
+     * simulation, hence the views should use getObstructionSnapshot instead.
      *
      * @return
      */
@@ -148,6 +341,37 @@ public class MapData {
         return obstructions;
     }
 
+    /**
+     * Get the snapshot of the obstructions as of the last move. The snapshot
+     * can be iterated by the views without any lock, but the returned array
+     * must not be modified. The view must release the snapshot when it is
+     * done with it, so that a map with moving obstructions can write it again.
+     *
+     * @see #releaseObstructionSnapshot(Rectangle[])
+     * @return
+     */
+    public Rectangle[] getObstructionSnapshot() {
+        Rectangle[] value = snapshot;
+        if (value == null) {
+            value = new Rectangle[index.size()];
+            for (int id=0; id<value.length; ++id)
+                value[id] = index.getBounds(id, new Rectangle());
+            snapshot = value;
+        }
+        return value;
+    }
+
+    /**
+     * Release the snapshot taken by getObstructionSnapshot. The snapshot
+     * must not be used after it is released. The base never writes the
+     * snapshot again, so there is nothing to do.
+     *
+     * @param value
+     */
+    public void releaseObstructionSnapshot(Rectangle[] value) {
+        // nothing.
+    }
+
     /**
      * Get a new car's start position based on its index.
      * The cars are positioned starting from the center, alternating between
@@ -168,9 +392,31 @@ public class MapData {
         return new Point(x, 0);
     }
 
+    /**
+     * Get the ids of the moving obstructions. All the other obstructions of
+     * the map never move, so the views can draw them once, and only draw the
+     * moving ones in every frame. The base does not have any moving
+     * obstructions. The returned array must not be modified.
+     *
+     * @return
+     */
+    public int[] getMovingObstructions() {
+        return NO_MOVING_OBSTRUCTIONS;
+    }
+
+    /**
+     * Get the collision index of the obstructions.
+     *
+     * @return
+     */
+    public CollisionIndex getCollisionIndex() {
+        return index;
+    }
+
     /**
      * Check whether the supplied bounds collides with any of the obstructions
-     * of this map or with the boundary of this map.
+     * of this map or with the boundary of this map. Only the obstructions
+     * near the supplied bounds are checked using the collision index.
      *
      * @param rect1
      * @return Return true if collides, else false.
@@ -180,13 +426,188 @@ public class MapData {
          || rect1.y < bounds.y || rect1.y + rect1.width > bounds.y + bounds.height) {
             return true;
         }
-        
-        for (Iterator<Rectangle> it=obstructions.iterator(); it.hasNext(); ) {
-            Rectangle rect2 = it.next();
-            if (rect1.intersects(rect2))
-                return true;
+
+        return index.intersects(rect1.x, rect1.y, rect1.width, rect1.height);
+    }
+
+    /**
+     * Sweep a box along a move, and find the first time it touches any of
+     * the obstructions of this map or the boundary of this map.
+     *
+     * @see #sweep(double, double, double, double, double, double, double)
+     * @param x The left of the box at the start.
+     * @param y The top of the box at the start.
+     * @param width
+     * @param height
+     * @param dx The move along X.
+     * @param dy The move along Y.
+     * @return The time of impact, or NO_IMPACT if the box does not hit anything.
+     */
+    public double sweep(double x, double y, double width, double height, double dx, double dy) {
+        return sweep(x + width/2, y + height/2, width/2, height/2, 0, dx, dy);
+    }
+
+    /**
+     * Sweep a box turned by an angle along a move, and find the first time it
+     * touches any of the obstructions of this map or the boundary of this map.
+     * At angle 0 the width of the box is along X and its length along Y, and
+     * a positive angle turns it clockwise, the same as the car angle.
+     *
+     * The check has two phases. The broad phase queries the collision index
+     * for the obstructions near the axis-aligned box that covers the turned
+     * box over the whole move, so that a fast move can not pass through a
+     * thin obstruction between the start and the end. The narrow phase then
+     * checks only those candidates exactly, using the separating axis test
+     * between the turned box and the obstruction, with the move projected on
+     * each of the four axes: X, Y and the two sides of the box. Neither phase
+     * creates any object.
+     *
+     * The time of impact is the fraction of the move, from 0 at the start to
+     * 1 at the end, at which the box first touches. Touching edges are not a
+     * hit, unless the box moves into the obstruction.
+     *
+     * The box may already overlap an obstruction at the start, e.g., a
+     * moving block moved onto it, or it turned into a wall. It is hit at 0
+     * only if the box moves deeper along the axis of least overlap, which is
+     * the way out. A box that moves out, or along it, is not hit, so that
+     * the car is not stuck and damaged again in every step. The same is true
+     * for a box that is already partly outside the boundary of the map. This
+     * is invoked only by the simulation.
+     *
+     * @param centerX The center of the box at the start.
+     * @param centerY
+     * @param halfWidth Half the width of the box.
+     * @param halfLength Half the length of the box.
+     * @param angle The angle of the box in degrees.
+     * @param dx The move along X.
+     * @param dy The move along Y.
+     * @return The time of impact, or NO_IMPACT if the box does not hit anything.
+     */
+    public double sweep(double centerX, double centerY, double halfWidth, double halfLength,
+            double angle, double dx, double dy) {
+        // the length and width directions of the box, the same as the car moves
+        double radians = Math.toRadians(angle);
+        double sin = Math.sin(radians);
+        double cos = Math.cos(radians);
+
+        // half the size of the axis-aligned box that covers the turned box
+        double extentX = Math.abs(cos)*halfWidth + Math.abs(sin)*halfLength;
+        double extentY = Math.abs(sin)*halfWidth + Math.abs(cos)*halfLength;
+
+        double impact = NO_IMPACT;
+
+        // the boundary of the map, where the box leaves the inside
+        impact = Math.min(impact, leave(centerX - extentX, 2*extentX, dx, bounds.x, bounds.x + bounds.width));
+        impact = Math.min(impact, leave(centerY - extentY, 2*extentY, dy, bounds.y, bounds.y + bounds.height));
+
+        // the broad phase over the box that covers the whole move
+        int left = (int) Math.floor(centerX - extentX + Math.min(0, dx));
+        int top = (int) Math.floor(centerY - extentY + Math.min(0, dy));
+        int right = (int) Math.ceil(centerX + extentX + Math.max(0, dx));
+        int bottom = (int) Math.ceil(centerY + extentY + Math.max(0, dy));
+
+        int n = index.query(left, top, right - left, bottom - top, candidates);
+        if (n > candidates.length) {
+            candidates = new int[2 * n];
+            n = index.query(left, top, right - left, bottom - top, candidates);
+        }
+
+        // the narrow phase: the time the box enters and exits each candidate
+        // along every axis, and the time it overlaps on all of them
+        for (int i=0; i<n; ++i) {
+            Rectangle o = index.getBounds(candidates[i], obstruction);
+            if (o.width <= 0 || o.height <= 0)
+                continue;
+            double halfX = o.width/2.0;
+            double halfY = o.height/2.0;
+            double offsetX = centerX - (o.x + halfX);
+            double offsetY = centerY - (o.y + halfY);
+
+            double enter = 0, exit = 1;
+
+            // whether the box overlaps at the start, and the move along the
+            // axis of least overlap, away from the obstruction
+            boolean overlaps = true;
+            double overlap = Double.POSITIVE_INFINITY;
+            double away = 0;
+
+            for (int axis=0; axis<4 && enter < exit; ++axis) {
+                // the axis, and the sum of the half sizes of the box and the
+                // obstruction projected on it
+                double ax, ay, radius;
+                if (axis == 0) {
+                    ax = 1; ay = 0;
+                    radius = extentX + halfX;
+                }
+                else if (axis == 1) {
+                    ax = 0; ay = 1;
+                    radius = extentY + halfY;
+                }
+                else if (axis == 2) {
+                    ax = cos; ay = -sin;
+                    radius = halfWidth + Math.abs(ax)*halfX + Math.abs(ay)*halfY;
+                }
+                else {
+                    ax = sin; ay = cos;
+                    radius = halfLength + Math.abs(ax)*halfX + Math.abs(ay)*halfY;
+                }
+
+                double distance = offsetX*ax + offsetY*ay;
+                double speed = dx*ax + dy*ay;
+                double depth = radius - Math.abs(distance);
+                if (depth <= 0)
+                    overlaps = false;
+                else if (depth < overlap) {
+                    overlap = depth;
+                    away = (distance < 0 ? -speed : speed);
+                }
+
+                if (speed == 0) {
+                    if (Math.abs(distance) >= radius)
+                        exit = 0;
+                }
+                else {
+                    double t1 = (-radius - distance) / speed;
+                    double t2 = (radius - distance) / speed;
+                    enter = Math.max(enter, Math.min(t1, t2));
+                    exit = Math.min(exit, Math.max(t1, t2));
+                }
+            }
+            if (overlaps && away >= 0)
+                continue;
+            if (enter < exit && enter < impact)
+                impact = enter;
+        }
+        return impact;
+    }
+
+    /**
+     * Find the first time a box leaves the inside of the boundary along one
+     * axis.
+     *
+     * @param start The start of the box on the axis.
+     * @param size The size of the box on the axis.
+     * @param d The move along the axis.
+     * @param min The start of the boundary.
+     * @param max The end of the boundary.
+     * @return The time the box leaves, 0 if it is already outside and moves
+     * further out, or NO_IMPACT if it stays inside or moves back in.
+     */
+    private static double leave(double start, double size, double d, double min, double max) {
+        if (start < min) {
+            if (d < 0)
+                return 0;
+        }
+        else if (start + d < min)
+            return (min - start) / d;
+
+        if (start + size > max) {
+            if (d > 0)
+                return 0;
         }
-        return false;
+        else if (start + size + d > max)
+            return (max - start - size) / d;
+        return NO_IMPACT;
     }
 
 }
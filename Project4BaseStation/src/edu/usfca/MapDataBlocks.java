@@ -41,7 +41,7 @@ public class MapDataBlocks extends MapData {
      * @param maxHeight The maximum height of the block.
      */
     private void addRandomBlocks(int blocks, int minSize, int maxWidth, int maxHeight) {
-        Random r = new Random();
+        Random r = random;
 
         // x ranges throughout the map
         int xrange = bounds.width;
@@ -59,7 +59,7 @@ public class MapDataBlocks extends MapData {
             int y = r.nextInt(yrange-h) + start.y + 1000;
 
             Rectangle o = new Rectangle(x, y, w, h);
-            obstructions.add(o);
+            addObstruction(o);
         }
     }
 
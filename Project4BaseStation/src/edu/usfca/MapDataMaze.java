@@ -41,7 +41,7 @@ public class MapDataMaze extends MapData {
      * randomly generated between 1 and maxGaps.
      */
     private void addRandomMaze(int blockHeight, int xGap, int yGap, int maxGaps) {
-        Random r = new Random();
+        Random r = random;
 
         // y range from start+1000 to finish-1000
         int ystart = start.y + 1000;
@@ -66,14 +66,14 @@ public class MapDataMaze extends MapData {
                 x2 = xpos[i];
                 if (x2 > x1) {
                     Rectangle o = new Rectangle(x1, y, x2-x1, blockHeight);
-                    obstructions.add(o);
+                    addObstruction(o);
                 }
                 x1 = x2 + xGap;
             }
             if (x1 <= (bounds.x + bounds.width)) {
                 // wall has fixed height.
                 Rectangle o = new Rectangle(x1, y, bounds.x+bounds.width-x1-1, blockHeight);
-                obstructions.add(o);
+                addObstruction(o);
             }
         }
     }
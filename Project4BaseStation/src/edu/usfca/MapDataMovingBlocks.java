@@ -1,108 +1,265 @@
 package edu.usfca;
 
 import java.awt.Rectangle;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * The map containing random moving blocks. This extends the MapdataBlocks,
- * to create a thread that randomly moves the blocks. The direction of the movement
- * is determined randomly, and is periodically reversed.
+ * to randomly move the blocks in every simulation step. The direction of the
+ * movement is determined randomly, and is periodically reversed.
+ *
+ * The position and velocity of the moving obstructions are kept in primitive
+ * arrays, so that a move does not allocate anything. After every move, the
+ * moved positions are copied to one of three buffers, which is then published
+ * to the views. A view takes the published buffer and releases it when it is
+ * done drawing, and each buffer counts the views that hold it. The next move
+ * writes only a buffer that is neither published nor held by any view, so a
+ * view never sees a buffer that is being written, even when the simulation
+ * catches up by moving several times back-to-back. If no buffer is free,
+ * e.g., when two views on different threads hold the other two, the move is
+ * not published, and the views draw the previous positions until the next
+ * move.
  *
  * @see MapDataBlocks.
  * @author mamta
  */
 public class MapDataMovingBlocks extends MapDataBlocks {
+    // how often to move in milliseconds.
+    private static final int MOVE_INTERVAL = 50;
+
+    // in each interval, whats the change in position.
+    private static final double MOVE_SPEED = 5;
+
+    // after how many milliseconds to reverse the move direction.
+    private static final int REVERSE_INTERVAL = 30000;
+
+    // what fraction of obstructions should be moved.
+    private static final double MOVE_FRACTION = 0.5;
+
+    // the obstructions by their id in the collision index
+    private Rectangle[] blocks = null;
+
+    // the ids, positions and velocities of the moving obstructions
+    private int[] moving;
+    private double[] posX;
+    private double[] posY;
+    private double[] velX;
+    private double[] velY;
+    private int movingCount = 0;
+
+    // the ids of the moving obstructions, as returned to the views
+    private int[] movingIds = new int[0];
+
+    // the number of buffers of the obstructions published to the views
+    private static final int BUFFERS = 3;
 
-    // whether the thread is running or not?
-    private volatile boolean running = false;
-    private Thread thread = null;
+    // the buffers of the obstructions published to the views, the index of
+    // the published buffer, and the number of views that hold each buffer
+    private volatile Rectangle[][] buffers = null;
+    private volatile int front = 0;
+    private final AtomicIntegerArray holds = new AtomicIntegerArray(BUFFERS);
+
+    // the time in milliseconds since the last move, and the total time moved
+    private int elapsed = 0;
+    private long duration = 0;
 
     /**
-     * Add the obstructions using base class method, and start a thread to
-     * move those obstructions.
-     *
-     * @param level
+     * Pick the obstructions to move once all the obstructions are added,
+     * or loaded.
      */
     @Override
-    public void addObstructions(String level) {
-        super.addObstructions(level);
-        startMoveThread(0.5, 50, 5);
+    protected void obstructionsAdded() {
+        initMove(MOVE_FRACTION);
     }
 
     /**
-     * Remove the obstructions and terminate the thread.
+     * Remove the obstructions and stop moving them.
      */
     @Override
     public void removeObstructions() {
+        movingCount = 0;
+        movingIds = new int[0];
+        blocks = null;
+        buffers = null;
         super.removeObstructions();
-        if (thread != null && running) {
-            running = false;
-            thread.interrupt();
-            thread = null;
-        }
     }
 
     /**
-     * Start the thread to move the obstructions.
+     * Pick the obstructions to move, and create the buffers to publish. The
+     * obstructions that do not move are shared by all the buffers.
      *
      * @param fraction What fraction of obstructions should be moved.
-     * @param interval How often to move.
-     * @param speed In each interval, whats the change in position.
      */
-    private void startMoveThread(double fraction, final int interval, final double speed) {
-        Random r = new Random();
+    private void initMove(double fraction) {
+        Random r = random;
 
-        // the movement direction of a rectangle
-        final Map<Rectangle, Double> direction = new HashMap<Rectangle, Double>();
+        blocks = new Rectangle[index.size()];
+        for (int id=0; id<blocks.length; ++id)
+            blocks[id] = index.getBounds(id, new Rectangle());
+        moving = new int[blocks.length];
+        posX = new double[blocks.length];
+        posY = new double[blocks.length];
+        velX = new double[blocks.length];
+        velY = new double[blocks.length];
+        Rectangle[][] b = new Rectangle[BUFFERS][blocks.length];
 
         // make fraction of rectangles with random move direction
-        for (Iterator<Rectangle> it=obstructions.iterator(); it.hasNext(); ) {
-            Rectangle obs = it.next();
+        for (int id=0; id<blocks.length; ++id) {
+            Rectangle obs = blocks[id];
             if (r.nextDouble() < fraction) {
-                direction.put(obs, new Double(r.nextInt(360)));
+                double radians = Math.toRadians(r.nextInt(360));
+                moving[movingCount] = id;
+                posX[movingCount] = obs.x;
+                posY[movingCount] = obs.y;
+                velX[movingCount] = MOVE_SPEED*Math.sin(radians);
+                velY[movingCount] = MOVE_SPEED*Math.cos(radians);
+                ++movingCount;
+                for (int k=0; k<BUFFERS; ++k)
+                    b[k][id] = new Rectangle(obs);
+            }
+            else {
+                for (int k=0; k<BUFFERS; ++k)
+                    b[k][id] = obs;
             }
         }
+        front = 0;
+        buffers = b;
 
-        running = true;
-
-        thread = new Thread() {
-            @Override
-            public void run() {
-                long duration = 0;
-                while (running) {
-                    duration += interval;
-
-                    try {
-                        Thread.sleep(interval);
-                    } catch (InterruptedException ex) {
-                        continue; // that it will break if running is false
-                    }
-
-                    for (Iterator<Rectangle> it=obstructions.iterator(); it.hasNext(); ) {
-                        Rectangle obs = it.next();
-                        if (direction.containsKey(obs)) {
-                            // calculate the new position based on speed and direction
-                            double angle = direction.remove(obs).doubleValue();
-                            double radians = Math.toRadians(angle);
-                            double xd = speed*Math.sin(radians);
-                            double yd = speed*Math.cos(radians);
-                            obs.setLocation((int) (obs.x + xd), (int) (obs.y + yd));
-
-                            // after some time reverse the move direction
-                            if (duration % 30000 == 0)
-                                angle += 180;
-
-                            // update in the direction map
-                            direction.put(obs, new Double(angle));
-                        }
-                    }
-                }
+        movingIds = new int[movingCount];
+        System.arraycopy(moving, 0, movingIds, 0, movingCount);
+    }
+
+    /**
+     * Move the obstructions once in every move interval of the simulation time.
+     *
+     * @param duration
+     */
+    @Override
+    public void step(int duration) {
+        elapsed += duration;
+        while (elapsed >= MOVE_INTERVAL) {
+            elapsed -= MOVE_INTERVAL;
+            move();
+        }
+    }
+
+    /**
+     * Move the obstructions in their direction, and publish the moved
+     * positions. Only the obstructions whose position changed are updated
+     * in the collision index, which re-buckets only the ones that changed
+     * cells.
+     */
+    private void move() {
+        duration += MOVE_INTERVAL;
+
+        // after some time reverse the move direction
+        boolean reverse = (duration % REVERSE_INTERVAL == 0);
+
+        for (int i=0; i<movingCount; ++i) {
+            posX[i] += velX[i];
+            posY[i] += velY[i];
+
+            int id = moving[i];
+            Rectangle obs = blocks[id];
+            int x = (int) posX[i];
+            int y = (int) posY[i];
+            if (x != obs.x || y != obs.y) {
+                obs.setLocation(x, y);
+                index.move(id, x, y);
+            }
+
+            if (reverse) {
+                velX[i] = -velX[i];
+                velY[i] = -velY[i];
             }
-        };
+        }
+
+        publishObstructions();
+    }
 
-        thread.start();
+    /**
+     * Get the ids of the moving obstructions.
+     *
+     * @return
+     */
+    @Override
+    public int[] getMovingObstructions() {
+        return movingIds;
+    }
+
+    /**
+     * Take the published buffer of the obstructions. The buffer is counted
+     * as held before it is checked to still be the published one, so that
+     * the next move can not start writing it after the check.
+     *
+     * @return
+     */
+    @Override
+    public Rectangle[] getObstructionSnapshot() {
+        Rectangle[][] b = buffers;
+        if (b == null)
+            return super.getObstructionSnapshot();
+
+        while (true) {
+            int f = front;
+            holds.incrementAndGet(f);
+            if (f == front && b == buffers)
+                return b[f];
+            holds.decrementAndGet(f);
+            b = buffers;
+            if (b == null)
+                return super.getObstructionSnapshot();
+        }
+    }
+
+    /**
+     * Release the buffer taken by getObstructionSnapshot, so that it can be
+     * written again.
+     *
+     * @param value
+     */
+    @Override
+    public void releaseObstructionSnapshot(Rectangle[] value) {
+        Rectangle[][] b = buffers;
+        if (b == null)
+            return;
+        for (int k=0; k<BUFFERS; ++k) {
+            if (b[k] == value) {
+                holds.decrementAndGet(k);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copy the positions of the moving obstructions to a buffer that is
+     * neither published nor held by any view, and publish it. If every such
+     * buffer is held, nothing is published, and the positions are copied by
+     * a later move.
+     */
+    @Override
+    protected void publishObstructions() {
+        Rectangle[][] b = buffers;
+        if (b == null) {
+            super.publishObstructions();
+            return;
+        }
+
+        int f = front;
+        int back = -1;
+        for (int k=0; k<BUFFERS && back < 0; ++k) {
+            if (k != f && holds.get(k) == 0)
+                back = k;
+        }
+        if (back < 0)
+            return;
+
+        Rectangle[] buffer = b[back];
+        for (int i=0; i<movingCount; ++i) {
+            int id = moving[i];
+            buffer[id].setLocation(blocks[id].x, blocks[id].y);
+        }
+        front = back;
     }
 }
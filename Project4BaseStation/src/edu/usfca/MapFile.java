@@ -0,0 +1,199 @@
+package edu.usfca;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The binary map file, so that a good map can be saved, shared between base
+ * stations and loaded again. The file contains:
+ *
+ * the magic number and the format version,
+ * the map type, difficulty level and random seed,
+ * the map bounds, start and finish positions, and the initial car distance,
+ * the number of obstructions, followed by the packed obstructions, each as
+ * four integers x, y, width and height.
+ *
+ * The file is memory mapped when loading, and the obstructions are put from
+ * the mapped file straight into the collision index of the map, without
+ * creating any object per obstruction. So even a map with a very large
+ * number of obstructions loads quickly.
+ *
+ * A file that is truncated or corrupt fails to load with an IOException,
+ * like any other file that can not be read. Every count, length and size
+ * in the file is checked before anything is allocated for it.
+ *
+ * @author mamta
+ */
+public class MapFile {
+    // the magic number and version at the start of the file
+    private static final int MAGIC = 0x524D4150; // "RMAP"
+    private static final short VERSION = 1;
+
+    // the size of a packed obstruction
+    private static final int OBSTRUCTION_SIZE = 16;
+
+    // the maximum width and height of the map bounds, which the collision
+    // index grid is allocated for
+    private static final int MAX_MAP_SIZE = 1 << 18;
+
+    /**
+     * Save the map to the file. The obstructions are saved at their current
+     * position.
+     *
+     * @param map
+     * @param file
+     * @throws IOException
+     */
+    public static void save(MapData map, String file) throws IOException {
+        byte[] type = encode(map.getType());
+        byte[] level = encode(map.getLevel());
+        CollisionIndex index = map.getCollisionIndex();
+        int count = index.size();
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + 8 + 2 + type.length + 2 + level.length
+                + 9 * 4 + 4 + count * OBSTRUCTION_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putLong(map.getSeed());
+        buffer.putShort((short) type.length);
+        buffer.put(type);
+        buffer.putShort((short) level.length);
+        buffer.put(level);
+
+        Rectangle bounds = map.getBounds();
+        buffer.putInt(bounds.x);
+        buffer.putInt(bounds.y);
+        buffer.putInt(bounds.width);
+        buffer.putInt(bounds.height);
+        buffer.putInt(map.getStart().x);
+        buffer.putInt(map.getStart().y);
+        buffer.putInt(map.getFinish().x);
+        buffer.putInt(map.getFinish().y);
+        buffer.putInt(map.initialDistance);
+
+        Rectangle rect = new Rectangle();
+        buffer.putInt(count);
+        for (int id=0; id<count; ++id) {
+            index.getBounds(id, rect);
+            buffer.putInt(rect.x);
+            buffer.putInt(rect.y);
+            buffer.putInt(rect.width);
+            buffer.putInt(rect.height);
+        }
+        buffer.flip();
+
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Load the map from the file. The map is created using the sub-class
+     * for its map type, so that, e.g., a map of moving blocks moves again.
+     *
+     * @param file
+     * @return
+     * @throws IOException If the file can not be read, or is not a valid map file.
+     */
+    public static MapData load(String file) throws IOException {
+        ByteBuffer buffer;
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("map file too large: " + file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            channel.close();
+        }
+
+        try {
+            return load(buffer, file);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("corrupt map file: " + file, ex);
+        }
+    }
+
+    /**
+     * Load the map from the buffer of the file.
+     *
+     * @param buffer
+     * @param file
+     * @return
+     * @throws IOException If the file is not a valid map file.
+     */
+    private static MapData load(ByteBuffer buffer, String file) throws IOException {
+        if (buffer.remaining() < 6 || buffer.getInt() != MAGIC)
+            throw new IOException("not a map file: " + file);
+        if (buffer.getShort() != VERSION)
+            throw new IOException("unsupported map file version: " + file);
+
+        long seed = buffer.getLong();
+        String type = getString(buffer);
+        String level = getString(buffer);
+
+        Rectangle bounds = new Rectangle(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+        if (bounds.width <= 0 || bounds.height <= 0 || bounds.width > MAX_MAP_SIZE || bounds.height > MAX_MAP_SIZE)
+            throw new IOException("corrupt map file: " + file);
+
+        MapData map = MapData.newInstance(type, level, seed);
+        map.setFile(file);
+        map.bounds = bounds;
+        map.start = new Point(buffer.getInt(), buffer.getInt());
+        map.finish = new Point(buffer.getInt(), buffer.getInt());
+        map.initialDistance = buffer.getInt();
+        map.index = map.createIndex();
+
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() < (long) count * OBSTRUCTION_SIZE)
+            throw new IOException("truncated map file: " + file);
+        CollisionIndex index = map.index;
+        for (int i=0; i<count; ++i)
+            index.add(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+
+        map.obstructionsAdded();
+        map.publishObstructions();
+        return map;
+    }
+
+    /**
+     * Read the length and bytes of a string.
+     *
+     * @param buffer
+     * @return
+     * @throws IOException
+     */
+    private static String getString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getShort();
+        if (length < 0 || length > buffer.remaining())
+            throw new IOException("corrupt map file");
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, "UTF-8");
+    }
+
+    /**
+     * Utility method to encode a string as UTF-8.
+     *
+     * @param value
+     * @return
+     */
+    private static byte[] encode(String value) {
+        try {
+            return (value != null ? value : "").getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
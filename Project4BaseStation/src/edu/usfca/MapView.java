@@ -2,24 +2,28 @@ package edu.usfca;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
 import java.awt.Point;
 import java.awt.Rectangle;
-import java.util.Iterator;
-import javax.swing.JPanel;
+import java.awt.image.BufferedImage;
 
 /**
  * The user interface that displays the global view on the left.
  * It displays the start and finish lines, as well as all the obstructions in
- * event paint interval. This object also scans all players state such as
- * activity, collision and finish line crossing and informs the listener
- * application if needed.
+ * event paint interval. The players state such as activity, collision and
+ * finish line crossing is updated by the game simulation, this view only
+ * displays it. The view is drawn in every frame by the frame scheduler.
+ *
+ * The parts of the map that never move, i.e., the background, start and
+ * finish lines and the static obstructions, are drawn once to an image, the
+ * static layer. In every paint the static layer is copied to the view, and
+ * only the moving obstructions and the players are drawn on top. So the
+ * cost of a paint does not depend on the number of static obstructions.
+ * The static layer is drawn again when the map or the view size changes.
  *
  * @author mamta
  */
-public class MapView extends JPanel implements Runnable {
-    // how often in milliseconds to refresh the view
-    private static final int PAINT_INTERVAL = 20;
-
+public class MapView extends FrameView {
     // the colors used
     private static final Color bgColor = Color.BLACK;
     private static final Color fgColor = Color.LIGHT_GRAY;
@@ -31,27 +35,23 @@ public class MapView extends JPanel implements Runnable {
     // radius of the player view circle.
     private static final int carRadius = 4;
 
-    // the listener object that received events when a player is removed
-    // due to inactivity, or when a player has reached the finish line.
-    private ControlPanel listener;
-
     // the game data model
     private GameData data;
 
+    // the static layer, and the map it was drawn for
+    private BufferedImage layer = null;
+    private MapData layerMap = null;
+
+    // the car position reused by every frame
+    private Point pos = new Point();
+
     /**
-     * Construct a new MapView, including the thread to periodically
-     * repaint.
+     * Construct a new MapView.
      * 
-     * @param listener
      * @param data
      */
-    public MapView(ControlPanel listener, GameData data) {
-        this.listener = listener;
+    public MapView(GameData data) {
         this.data = data;
-
-        setDoubleBuffered(true);
-        Thread th = new Thread(this);
-        th.start();
     }
 
     /**
@@ -60,9 +60,7 @@ public class MapView extends JPanel implements Runnable {
      * @param g
      */
     @Override
-    public void paintComponent(Graphics g) {
-        super.paintComponent(g);
-
+    public void render(Graphics g) {
         if (data != null) {
             drawMap(g);
             drawPlayers(g);
@@ -71,20 +69,69 @@ public class MapView extends JPanel implements Runnable {
 
 
     /**
-     * Draw the map: background, start-finish lines, obstructions.
+     * Draw the map: the static layer with background, start-finish lines and
+     * static obstructions, and then the moving obstructions.
      *
      * @param g
      */
     public void drawMap(Graphics g) {
-        int width = getWidth();
-        int height = getHeight();
+        MapData map = data.getMapData();
+        g.drawImage(getStaticLayer(map), 0, 0, null);
+
+        // moving obstructions
+        g.setColor(fgColor);
+        Rectangle[] obstructions = map.getObstructionSnapshot();
+        try {
+            int[] moving = map.getMovingObstructions();
+            for (int i=0; i<moving.length; ++i) {
+                if (moving[i] < obstructions.length)
+                    fillObstruction(g, obstructions[moving[i]]);
+            }
+        } finally {
+            map.releaseObstructionSnapshot(obstructions);
+        }
+    }
+
+    /**
+     * Get the static layer of the map for the current view size. It is drawn
+     * again if the map or the view size changed since it was last drawn.
+     *
+     * @param map
+     * @return
+     */
+    private BufferedImage getStaticLayer(MapData map) {
+        int width = Math.max(1, getWidth());
+        int height = Math.max(1, getHeight());
+        if (layer == null || layerMap != map || layer.getWidth() != width || layer.getHeight() != height) {
+            layer = createStaticLayer(map, width, height);
+            layerMap = map;
+        }
+        return layer;
+    }
+
+    /**
+     * Draw the static layer of the map: background, start-finish lines and
+     * the obstructions that never move. The image is compatible with the
+     * screen, if any, so that copying it to the view is fast.
+     *
+     * @param map
+     * @param width
+     * @param height
+     * @return
+     */
+    private BufferedImage createStaticLayer(MapData map, int width, int height) {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        BufferedImage image = (gc != null ? gc.createCompatibleImage(width, height)
+                : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        Graphics g = image.createGraphics();
 
         // background
+        g.setColor(getBackground());
+        g.fillRect(0, 0, width, height);
         g.setColor(bgColor);
         g.fillRect(1, 1, width-2, height-2);
 
         // start-finish lines
-        MapData map = data.getMapData();
         Point start = data2view(map.getStart());
         Point finish = data2view(map.getFinish());
 
@@ -93,45 +140,55 @@ public class MapView extends JPanel implements Runnable {
         g.drawLine(start.x, start.y-4, start.x, start.y+4);
         g.drawLine(1, finish.y, width-2, finish.y);
 
-        // obstructions
+        // static obstructions
         g.setColor(fgColor);
-        for (Iterator<Rectangle> it = map.getObstructions().iterator(); it.hasNext(); ) {
-            Rectangle rect = data2view(it.next());
-            g.fillRect(rect.x, rect.y, rect.width, rect.height);
+        Rectangle[] obstructions = map.getObstructionSnapshot();
+        try {
+            boolean[] moves = new boolean[obstructions.length];
+            int[] moving = map.getMovingObstructions();
+            for (int i=0; i<moving.length; ++i) {
+                if (moving[i] < moves.length)
+                    moves[moving[i]] = true;
+            }
+            for (int i=0; i<obstructions.length; ++i) {
+                if (!moves[i])
+                    fillObstruction(g, obstructions[i]);
+            }
+        } finally {
+            map.releaseObstructionSnapshot(obstructions);
         }
+
+        g.dispose();
+        return image;
     }
 
     /**
-     * Draw the players. It also dispatches event to listener in case of player state
-     * changes such as inactivity, collision or finish line crossing.
+     * Fill the obstruction rectangle after converting it from game data to
+     * map view. The position of the top-left and right-bottom corner points
+     * in map-view are calculated, and then the rectangle from that, without
+     * creating any object.
+     *
      * @param g
+     * @param rect
      */
-    private void drawPlayers(Graphics g) {
-        for (Iterator<PlayerData> it = data.getPlayers().values().iterator(); it.hasNext(); ) {
-            PlayerData player = it.next();
+    private void fillObstruction(Graphics g, Rectangle rect) {
+        Rectangle bounds = data.getMapData().getBounds();
+        int x1 = viewX(bounds, rect.x);
+        int y1 = viewY(bounds, rect.y+rect.height);
+        int x2 = viewX(bounds, rect.x+rect.width);
+        int y2 = viewY(bounds, rect.y);
+        g.fillRect(x1, y1, x2-x1, y2-y1);
+    }
 
-            // if player is inactive, remove him
-            if (player.hasExpired()) {
-                it.remove();
-                listener.removed(player);
-            }
-            else {
-                MapData map = data.getMapData();
-                if (map != null) {
-                    // if player has collided
-                    if (data.hasCollided(player)) {
-                        player.damaged();
-                    }
-
-                    // if player has finished the finish line
-                    if (player.getY() >= map.getFinish().getY()) {
-                        player.finished(data.getDuration());
-                    }
-                }
-
-                // draw a individual player
-                drawPlayer(g, player);
-            }
+    /**
+     * Draw the players.
+     * @param g
+     */
+    private void drawPlayers(Graphics g) {
+        PlayerData[] players = data.getPlayers();
+        for (int i=0; i<players.length; ++i) {
+            // draw a individual player
+            drawPlayer(g, players[i]);
         }
     }
 
@@ -144,12 +201,13 @@ public class MapView extends JPanel implements Runnable {
      */
     private void drawPlayer(Graphics g, PlayerData player) {
         Color color = player.getCarColor();
-        Point pos = player.getCarLocation();
+        player.getCarLocation(pos);
         double angle = player.getAngle();
         
-        pos = data2view(pos.x, pos.y);
+        Rectangle bounds = data.getMapData().getBounds();
+        pos.setLocation(viewX(bounds, pos.x), viewY(bounds, pos.y));
         g.setColor(color);
-        g.fillOval(pos.x - carRadius, pos.y - carRadius, 2*carRadius, 2*carRadius);
+        fillCircle(g, pos.x - carRadius, pos.y - carRadius, 2*carRadius);
 
         double radians = Math.toRadians(angle);
         double xd = lineLength*Math.sin(radians);
@@ -181,39 +239,22 @@ public class MapView extends JPanel implements Runnable {
      */
     private Point data2view(int x, int y) {
         Rectangle bounds = data.getMapData().getBounds();
-        return new Point((int) ((0.5 + x/bounds.getWidth()) * getWidth()),
-                         (int) ((1.0 - (y-bounds.getY())/bounds.getHeight()) * getHeight()));
+        return new Point(viewX(bounds, x), viewY(bounds, y));
     }
 
     /**
-     * Utility method to convert a rectangle from game data to map view.
-     * Note that the rectangle position in game data is given with respect
-     * to bottom-left corner point, whereas in map view is with respect to
-     * top-left corner point. I calculate the position of the top-left
-     * and right-bottom corner points in map-view, and then calculate the
-     * rectangle from that.
-     * 
-     * @param rect
+     * Utility methods to convert the x and y position from game data to map
+     * view, as described in data2view.
+     *
+     * @param bounds The map bounds.
+     * @param x
      * @return
      */
-    private Rectangle data2view(Rectangle rect) {
-        Point pos1 = data2view(rect.x, rect.y+rect.height);
-        Point pos2 = data2view(rect.x+rect.width, rect.y);
-        return new Rectangle(pos1.x, pos1.y, pos2.x-pos1.x, pos2.y-pos1.y);
+    private int viewX(Rectangle bounds, int x) {
+        return (int) ((0.5 + x/bounds.getWidth()) * getWidth());
     }
 
-    /**
-     * The main thread to periodically repaint the view.
-     */
-    public void run() {
-        while (true) {
-            this.repaint();
-            try {
-                Thread.sleep(PAINT_INTERVAL);
-            }
-            catch (InterruptedException ex) {
-                break;
-            }
-        }
+    private int viewY(Rectangle bounds, int y) {
+        return (int) ((1.0 - (y-bounds.getY())/bounds.getHeight()) * getHeight());
     }
 }
@@ -0,0 +1,187 @@
+package edu.usfca;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The registry of the metrics of a game, so that when a race stutters it can
+ * be told whether the radio, the simulation or the drawing is slow. Every
+ * metric is a histogram with fixed memory, except the link monitors and
+ * the tile cache which have counters. The metrics are:
+ *
+ * radio.gap.[address]: the time between two packets from the SPOT, in
+ * microseconds. The packet rate is the count over the duration of the game.
+ * radio.link.[address]: the packets from the SPOT received, lost, late and
+ * duplicated, and the jitter of the packet transit time.
+ * radio.ack: the time from queuing a command to the SPOT to its
+ * acknowledgement, in microseconds.
+ * simulation.step: the duration of a simulation step, in microseconds.
+ * simulation.collisions: the number of collision checks in a step.
+ * paint.[view]: the duration of drawing a frame of the view, in microseconds.
+ * ui.delay: the time a task waits in the event queue before it is run by
+ * the event dispatch thread, in microseconds.
+ * tile.cache: the map tiles of the player views found in the cache, drawn
+ * and evicted.
+ *
+ * The histograms, link monitors and tile cache are registered as MBeans in
+ * the platform MBean server under "edu.usfca:type=Metrics", so they can be
+ * read over JMX. The metrics are cleared when a game starts, and appended
+ * to the metrics file when it stops.
+ *
+ * @author mamta
+ */
+public class Metrics {
+    // the names of the metrics
+    public static final String RADIO_GAP = "radio.gap.";
+    public static final String RADIO_LINK = "radio.link.";
+    public static final String RADIO_ACK = "radio.ack";
+    public static final String STEP = "simulation.step";
+    public static final String COLLISIONS = "simulation.collisions";
+    public static final String PAINT = "paint.";
+    public static final String UI_DELAY = "ui.delay";
+    public static final String TILES = "tile.cache";
+
+    // the file the metrics are appended to when a game stops
+    public static final String DUMP_FILE = "metrics.txt";
+
+    // the histograms indexed by name
+    private Map<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    // the link monitors indexed by name
+    private Map<String, LinkMonitor> links = new ConcurrentHashMap<String, LinkMonitor>();
+
+    // the tile cache of the player views, created when first needed
+    private TileCache tiles;
+
+    /**
+     * Get the histogram of the metric, creating and registering it if
+     * needed. The histogram should be kept by a caller that records often,
+     * instead of getting it again for every value.
+     *
+     * @param name
+     * @return
+     */
+    public Histogram getHistogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            synchronized (this) {
+                histogram = histograms.get(name);
+                if (histogram == null) {
+                    histogram = new Histogram(name);
+                    histograms.put(name, histogram);
+                    register(histogram, name);
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Get the link monitor of the SPOT, creating and registering it if
+     * needed. The monitor should be kept by the caller, as a histogram.
+     *
+     * @param addr
+     * @return
+     */
+    public LinkMonitor getLink(String addr) {
+        String name = RADIO_LINK + addr;
+        LinkMonitor link = links.get(name);
+        if (link == null) {
+            synchronized (this) {
+                link = links.get(name);
+                if (link == null) {
+                    link = new LinkMonitor(name);
+                    links.put(name, link);
+                    register(link, name);
+                }
+            }
+        }
+        return link;
+    }
+
+    /**
+     * Get the tile cache shared by the player views, creating and
+     * registering it if needed.
+     *
+     * @return
+     */
+    public synchronized TileCache getTileCache() {
+        if (tiles == null) {
+            tiles = new TileCache();
+            register(tiles, TILES);
+        }
+        return tiles;
+    }
+
+    /**
+     * Clear all the metrics. The tiles of the tile cache are kept.
+     */
+    public void reset() {
+        for (Iterator<Histogram> it=histograms.values().iterator(); it.hasNext(); ) {
+            it.next().reset();
+        }
+        for (Iterator<LinkMonitor> it=links.values().iterator(); it.hasNext(); ) {
+            it.next().reset();
+        }
+        synchronized (this) {
+            if (tiles != null)
+                tiles.reset();
+        }
+    }
+
+    /**
+     * Append all the metrics, sorted by name, to the file.
+     *
+     * @param file
+     * @param title The title written before the metrics.
+     * @throws IOException
+     */
+    public void dump(String file, String title) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file, true));
+        try {
+            out.println("# " + new Date() + " " + title);
+            Map<String, Object> sorted = new TreeMap<String, Object>(histograms);
+            sorted.putAll(links);
+            synchronized (this) {
+                if (tiles != null)
+                    sorted.put(TILES, tiles);
+            }
+            for (Iterator<Object> it=sorted.values().iterator(); it.hasNext(); ) {
+                out.println(it.next());
+            }
+            out.println();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Register the metric in the platform MBean server. A metric of the
+     * same name registered by another game in this process, e.g., a
+     * replay, is replaced.
+     *
+     * @param metric The histogram, link monitor or tile cache.
+     * @param metricName
+     */
+    private void register(Object metric, String metricName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("edu.usfca:type=Metrics,name=" + ObjectName.quote(metricName));
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(metric, name);
+        } catch (Exception ex) {
+            // the metric is still recorded and dumped
+            ex.printStackTrace();
+        }
+    }
+}
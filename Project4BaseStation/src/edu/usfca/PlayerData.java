@@ -8,23 +8,18 @@ import java.awt.Rectangle;
 /**
  * An individual's player data such as his position in the map, the
  * direction of the car, damage count, finish line status, etc.
+ *
+ * The car state is kept in a slot of a PlayerStore, so that the simulation
+ * can update the cars of a game together, and this object is a view of that
+ * slot. A player data constructed only with the start position uses a store
+ * of its own.
  * 
  * @author mamta
  */
 public class PlayerData {
-    // after how many milliseconds should a player data expire if no activity
-    private static final int EXPIRE_AFTER_INACTIVITY = 5000;
-
-    // after how many milisecond after last activity, should player be marked
-    // inactive. An inactive player is removed after 5000-1000 of inactivity.
-    private static final int RECENT_ACTIVITY_TIMEOUT = 1000;
-
     // For how long in milliseconds should the damage circle be displayed.
     private static final int RECENT_DAMAGE_DURATION = 200;
 
-    // the number of total damages before marking the car as completely damaged.
-    private static final int DAMAGE_LIMIT = 100;
-
     // width of the car (X) in start position
     private static final int carWidth = 20;
 
@@ -37,70 +32,28 @@ public class PlayerData {
     // maximum speed in reverse direction
     public static final int SPEED_REVERSE_MAX = 20;
 
-    // what is the absolute speed below which the car is made stationary.
-    private static final double SPEED_MIN = 3;
-
-    // how much acceleration to apply to positive speed in positive yd (gas).
-    // For negative yd (brake), the acceleration is double
-    private static final double SPEED_ACCELERATION_FACTOR = 1/20.0;
-
-    // how much acceleration to apply to negative speed.
-    private static final double SPEED_DECELERATION_FACTOR = 1/100.0;
-
-    // how much angle change should be applied for xd (steering control).
-    private static final double ANGLE_CHANGE_FACTOR = 1/20.0;
-
-    // how much speed should reduce for inactivity
-    private static final double SPEED_DECELERATE_ON_INACTIVITY = 2;
-
-    // what is the speed factor to apply in each interval
-    private static final double SPEED_FACTOR = 1/200.0;
-
-    // what is the minimum speed tilt (yd/gas/brake) below which the data is ignored
-    private static final int MIN_SPEED_TILT = 10;
-
-    // what is the minimum angle tilt (xd/steering) below which the data is ignored
-    private static final int MIN_ANGLE_TILT = 10;
-
     // the color of the player's car
     private Color color;
 
-    // the current position of the car
-    private double x;
-    private double y;
+    // the store and the slot in the store that has the car state; the
+    // store is replaced by a copy of its own when the player is detached
+    private volatile PlayerStore store;
+    private int slot;
 
-    // the bounding rectangle of the car for collision detection
+    // the bounding rectangle of the turned car for collision detection
     private Rectangle rect;
 
-    // the speed of the car
-    private double speed = 0;
-
-    // the current angle. 0 is straigh. 90 is right. -90 is left.
-    private double angle = 0;
-
     // the address of the player's SPOT
     private String addr;
 
-    // after every activity the expires is reset to some time in future
-    private long expires;
+    // the start index of the player, which determines the color and start position
+    private int index;
 
-    // when was the last activity from this player
-    private long lastActivity=0;
+    // the latest input sample from the radio thread
+    private InputMailbox input = new InputMailbox();
 
-    // the damage count of the car
-    private double damage = 0;
-
-    // whether the player has finished. Once finished it remains finished.
-    private boolean isFinished = false;
-
-    // the finish duration.
-    private long duration = -1;
-
-    // the interval used for painting in the view.
-    private int paintInterval = 10;
-
-    // the time when this car was last collided.
-    private long lastDamage = 0;
+    // the latency trace of the input samples
+    private LatencyTrace trace = new LatencyTrace();
 
     /**
      * Construct a new player data using the start position.
@@ -110,12 +63,60 @@ public class PlayerData {
      * @param start
      */
     public PlayerData(String addr, Color color, Point start) {
+        this(addr, color, start, new PlayerStore(1), 0);
+    }
+
+    /**
+     * Construct a new player data using the start position, and allocate
+     * its slot in the given store. The slot must be released when the
+     * player is removed.
+     *
+     * @param addr
+     * @param color
+     * @param start
+     * @param store
+     * @param index The start index of the player.
+     */
+    public PlayerData(String addr, Color color, Point start, PlayerStore store, int index) {
         this.addr = addr;
+        this.index = index;
         this.color = color;
-        x = start.getX();
-        y = start.getY();
-        rect = new Rectangle((int)(x-carWidth/2), (int)(y-carLength/2), carWidth, carLength);
-        expires = System.currentTimeMillis() + EXPIRE_AFTER_INACTIVITY;
+        this.store = store;
+        slot = store.allocate(start.getX(), start.getY());
+        rect = new Rectangle((int)(start.getX()-carWidth/2), (int)(start.getY()-carLength/2), carWidth, carLength);
+    }
+
+    /**
+     * Get the start index of the player.
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the store that has the car state.
+     * @return
+     */
+    public PlayerStore getStore() {
+        return store;
+    }
+
+    /**
+     * Detach the player from the store, before its slot is released. The car
+     * state is copied to a store of its own, at the same slot, so that the
+     * player keeps its last state while a view still draws it.
+     */
+    void detach() {
+        store = store.copy(slot);
+    }
+
+    /**
+     * Get the slot in the store that has the car state.
+     * @return
+     */
+    public int getSlot() {
+        return slot;
     }
 
     /**
@@ -131,7 +132,7 @@ public class PlayerData {
      * @return
      */
     public double getX() {
-        return x;
+        return store.x[slot];
     }
 
     /**
@@ -139,7 +140,7 @@ public class PlayerData {
      * @return
      */
     public double getY() {
-        return y;
+        return store.y[slot];
     }
 
     /**
@@ -147,7 +148,17 @@ public class PlayerData {
      * @return
      */
     public Point getCarLocation() {
-        return new Point((int) x, (int) y);
+        return getCarLocation(new Point());
+    }
+
+    /**
+     * Get the car position in the given point, without creating any object.
+     * @param result
+     * @return The result point.
+     */
+    public Point getCarLocation(Point result) {
+        result.setLocation((int) store.x[slot], (int) store.y[slot]);
+        return result;
     }
 
     /**
@@ -159,13 +170,27 @@ public class PlayerData {
      * @return
      */
     public Polygon getCarPolygon(int viewWidth, int viewHeight) {
-        double radians = Math.toRadians(-angle);
+        return getCarPolygon(viewWidth, viewHeight, new Polygon());
+    }
+
+    /**
+     * Get the car shape in the given polygon, which is reset first. Once the
+     * polygon has room for the four points, no object is created, so that the
+     * same polygon can be used to draw every frame.
+     *
+     * @param viewWidth
+     * @param viewHeight
+     * @param p
+     * @return The result polygon.
+     */
+    public Polygon getCarPolygon(int viewWidth, int viewHeight, Polygon p) {
+        double radians = Math.toRadians(-store.angle[slot]);
         int w1 = (int) ((carLength/2)*Math.sin(radians));
         int h1 = (int) ((carLength/2)*Math.cos(radians));
         int w2 = (int) ((carWidth/2)*Math.cos(radians));
         int h2 = (int) ((carWidth/2)*Math.sin(radians));
 
-        Polygon p = new Polygon();
+        p.reset();
         p.addPoint(viewWidth/2-w1-w2, 3*viewHeight/4-h1+h2);
         p.addPoint(viewWidth/2-w1+w2, 3*viewHeight/4-h1-h2);
         p.addPoint(viewWidth/2+w1+w2, 3*viewHeight/4+h1-h2);
@@ -174,13 +199,84 @@ public class PlayerData {
     }
 
     /**
-     * Get the car rectangle for collision detection.
+     * Get the car rectangle for collision detection. This is the axis-aligned
+     * rectangle that covers the car turned by its angle, moved to the current
+     * position, and used as the broad phase before the exact check of the
+     * turned car. It must be used only by the simulation.
      * @return
      */
     public Rectangle getCarRectangle() {
+        double radians = Math.toRadians(store.angle[slot]);
+        double sin = Math.abs(Math.sin(radians));
+        double cos = Math.abs(Math.cos(radians));
+        double extentX = cos*carWidth/2 + sin*carLength/2;
+        double extentY = sin*carWidth/2 + cos*carLength/2;
+        int left = (int) Math.floor(store.x[slot] - extentX);
+        int top = (int) Math.floor(store.y[slot] - extentY);
+        rect.setBounds(left, top, (int) Math.ceil(store.x[slot] + extentX) - left,
+                (int) Math.ceil(store.y[slot] + extentY) - top);
         return rect;
     }
 
+    /**
+     * Check whether the car turned by its angle intersects the other car
+     * turned by its angle, using the separating axis test. The cars are
+     * separated if their projections on any of the sides of either car do
+     * not overlap. No object is created.
+     *
+     * @param other
+     * @return Return true if the cars intersect, else false.
+     */
+    public boolean intersects(PlayerData other) {
+        PlayerStore s2 = other.store;
+        double r1 = Math.toRadians(store.angle[slot]);
+        double r2 = Math.toRadians(s2.angle[other.slot]);
+        double sin1 = Math.sin(r1), cos1 = Math.cos(r1);
+        double sin2 = Math.sin(r2), cos2 = Math.cos(r2);
+        double dx = s2.x[other.slot] - store.x[slot];
+        double dy = s2.y[other.slot] - store.y[slot];
+
+        for (int axis=0; axis<4; ++axis) {
+            // the width and length directions of the first car, then the second
+            double ax, ay;
+            if (axis == 0) {
+                ax = cos1; ay = -sin1;
+            }
+            else if (axis == 1) {
+                ax = sin1; ay = cos1;
+            }
+            else if (axis == 2) {
+                ax = cos2; ay = -sin2;
+            }
+            else {
+                ax = sin2; ay = cos2;
+            }
+
+            double radius = carWidth/2.0*(Math.abs(cos1*ax - sin1*ay) + Math.abs(cos2*ax - sin2*ay))
+                    + carLength/2.0*(Math.abs(sin1*ax + cos1*ay) + Math.abs(sin2*ax + cos2*ay));
+            if (Math.abs(dx*ax + dy*ay) >= radius)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the input mailbox of this player. The radio thread publishes the
+     * input samples to it, and the simulation takes them.
+     * @return
+     */
+    public InputMailbox getInput() {
+        return input;
+    }
+
+    /**
+     * Get the latency trace of the input samples of this player.
+     * @return
+     */
+    public LatencyTrace getTrace() {
+        return trace;
+    }
+
     /**
      * Get the color of the player's car.
      * @return
@@ -194,7 +290,7 @@ public class PlayerData {
      * @return
      */
     public double getSpeed() {
-        return speed;
+        return store.speed[slot];
     }
 
     /**
@@ -202,7 +298,7 @@ public class PlayerData {
      * @return
      */
     public double getAngle() {
-        return angle;
+        return store.angle[slot];
     }
 
     /**
@@ -210,15 +306,14 @@ public class PlayerData {
      * @return
      */
     public boolean hasExpired() {
-        return System.currentTimeMillis() > expires;
+        return store.getTime() > store.expires[slot];
     }
 
     /**
      * Some activity received from player. Set the last activity and expires.
      */
     public void setActivity() {
-        lastActivity = System.currentTimeMillis();
-        expires = lastActivity + EXPIRE_AFTER_INACTIVITY;
+        store.setActivity(slot, store.getTime());
     }
 
     /**
@@ -236,35 +331,17 @@ public class PlayerData {
      * above which it is not changed. Also a speed less than a lower absolute threshold
      * is treated as 0, and car is made stationary.
      *
+     * The action of a full control interval is applied right away, and the
+     * input is held in the store to be applied again in every step while the
+     * player is active.
+     *
      * @param xd
      * @param yd
      * @param zd
      */
     public void setAction(int xd, int yd, int zd) {
-        if (Math.abs(yd) > MIN_SPEED_TILT) {
-            if (speed >= 0) {
-                if (yd > 0) {
-                    speed += yd*SPEED_ACCELERATION_FACTOR;
-                }
-                else {
-                    speed += yd*2*SPEED_ACCELERATION_FACTOR;
-                }
-            }
-            else {
-                speed += yd*SPEED_DECELERATION_FACTOR;
-            }
-
-            if (speed > (SPEED_FORWARD_MAX - damage))
-                speed = (SPEED_FORWARD_MAX - damage);
-            else if (speed < -SPEED_REVERSE_MAX)
-                speed = -SPEED_REVERSE_MAX;
-            if (Math.abs(speed) < SPEED_MIN)
-                speed = 0;
-        }
-
-        if (Math.abs(xd) > MIN_ANGLE_TILT) {
-            angle += xd*ANGLE_CHANGE_FACTOR;
-        }
+        store.setInput(slot, xd, yd, zd);
+        store.applyActions(slot, slot+1, PlayerStore.CONTROL_INTERVAL, true);
     }
 
     /**
@@ -273,7 +350,7 @@ public class PlayerData {
      * @return
      */
     public boolean hasRecentActivity() {
-        return ((System.currentTimeMillis() - lastActivity) < RECENT_ACTIVITY_TIMEOUT);
+        return ((store.getTime() - store.lastActivity[slot]) < PlayerStore.RECENT_ACTIVITY_TIMEOUT);
     }
 
     /**
@@ -281,29 +358,13 @@ public class PlayerData {
      * based on the speed and angle. A speed factor is applied, so that 
      * position is not changed drastically in 10 ms. If there has been
      * no recent activity by the user, then start reducing the absolute
-     * speed of the user.
+     * speed of the user. This does not advance the simulation time of the
+     * store, which is advanced only when all the cars are updated together.
      *
      * @param duration
      */
     public void update(int duration) {
-        this.paintInterval = duration;
-        double radians = Math.toRadians(angle);
-        x += speed*Math.sin(radians)*duration*SPEED_FACTOR;
-        y += speed*Math.cos(radians)*duration*SPEED_FACTOR;
-        rect.setLocation((int) (x - carWidth/2), (int) (y - carLength/2));
-
-        if (!hasRecentActivity()) {
-            if (speed > 0) {
-                speed -= SPEED_DECELERATE_ON_INACTIVITY*duration*SPEED_FACTOR*2;
-                if (speed < 0)
-                    speed = 0;
-            }
-            else if (speed < 0) {
-                speed += SPEED_DECELERATE_ON_INACTIVITY*duration*SPEED_FACTOR*2;
-                if (speed > 0)
-                    speed = 0;
-            }
-        }
+        store.update(slot, slot+1, duration, store.getTime());
     }
 
     /**
@@ -312,13 +373,34 @@ public class PlayerData {
      * car to just before the collision.
      */
     public void damaged() {
-        double radians = Math.toRadians(angle);
-        x -= 2*speed*Math.sin(radians)*paintInterval*SPEED_FACTOR;
-        y -= 2*speed*Math.cos(radians)*paintInterval*SPEED_FACTOR;
-        rect.setLocation((int) (x - carWidth/2), (int) (y - carLength/2));
-        damage += Math.abs((speed <= SPEED_FORWARD_MAX/2 ? speed : 4*speed)/10.0);
-        speed = 0;
-        lastDamage = System.currentTimeMillis();
+        store.damaged(slot, store.getTime());
+    }
+
+    /**
+     * Sweep the car turned by its angle along the move of the last update,
+     * and find the time of impact with the map.
+     *
+     * @see MapData#sweep(double, double, double, double, double, double, double)
+     * @param map
+     * @return The time of impact as a fraction of the last update, or
+     * MapData.NO_IMPACT if the car did not hit anything.
+     */
+    public double sweep(MapData map) {
+        double fromX = store.fromX[slot];
+        double fromY = store.fromY[slot];
+        return map.sweep(fromX, fromY, carWidth/2.0, carLength/2.0, store.angle[slot],
+                store.x[slot] - fromX, store.y[slot] - fromY);
+    }
+
+    /**
+     * When the car hits an obstruction during the last update, the collided
+     * method is invoked with the time of impact. It places the car at the
+     * point of contact, increases the damage count, and sets the speed to 0.
+     *
+     * @param impact The time of impact as a fraction of the last update.
+     */
+    public void collided(double impact) {
+        store.collided(slot, impact, store.getTime());
     }
 
     /**
@@ -326,7 +408,7 @@ public class PlayerData {
      * @return
      */
     public double getDamage() {
-        return damage;
+        return store.damage[slot];
     }
 
     /**
@@ -334,7 +416,7 @@ public class PlayerData {
      * @return
      */
     public boolean isCompletelyDamaged() {
-        return (damage >= DAMAGE_LIMIT);
+        return (store.damage[slot] >= PlayerStore.DAMAGE_LIMIT);
     }
 
     /**
@@ -342,7 +424,7 @@ public class PlayerData {
      * @return
      */
     public boolean isRecentlyDamaged() {
-        return (System.currentTimeMillis() - lastDamage) < RECENT_DAMAGE_DURATION;
+        return (store.getTime() - store.lastDamage[slot]) < RECENT_DAMAGE_DURATION;
     }
 
     /**
@@ -353,9 +435,9 @@ public class PlayerData {
      * @param duration
      */
     public void finished(long duration) {
-        if (!isFinished) {
-            isFinished = true;
-            this.duration = duration;
+        if (!store.finished[slot]) {
+            store.finished[slot] = true;
+            store.finishDuration[slot] = duration;
         }
     }
 
@@ -364,7 +446,7 @@ public class PlayerData {
      * @return
      */
     public boolean hasFinished() {
-        return isFinished;
+        return store.finished[slot];
     }
 
     /**
@@ -372,6 +454,6 @@ public class PlayerData {
      * @return
      */
     public long getFinishDuration() {
-        return duration;
+        return store.finishDuration[slot];
     }
 }
@@ -0,0 +1,212 @@
+package edu.usfca;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The registry of the active players of a game. It is used from several
+ * threads: the radio thread adds players and looks them up by address, the
+ * simulation removes the inactive players, the views draw the players, and
+ * the user interface stops the game.
+ *
+ * The lookup by address is lock-free. For iteration, the registry keeps a
+ * snapshot array of the players which is never modified once published. The
+ * players added or removed are queued, and applied to a new snapshot only
+ * when the simulation commits them between two steps. So every step, and
+ * every view that draws during that step, iterates the same stable list of
+ * players without taking any lock, and without any concurrent modification.
+ *
+ * @author mamta
+ */
+public class PlayerRegistry {
+    // the empty snapshot
+    private static final PlayerData[] EMPTY = new PlayerData[0];
+
+    /**
+     * The listener that receives the changes applied by a commit.
+     */
+    public interface Listener {
+        /**
+         * The player was added to the snapshot.
+         *
+         * @param player
+         */
+        public void joined(PlayerData player);
+
+        /**
+         * The player was removed from the snapshot.
+         *
+         * @param player
+         */
+        public void left(PlayerData player);
+
+        /**
+         * The player was removed before any commit added it, so it never
+         * joined. The listener can release anything held for that player.
+         *
+         * @param player
+         */
+        public void dropped(PlayerData player);
+    }
+
+    // the current players indexed by the SPOT address
+    private ConcurrentHashMap<String, PlayerData> members = new ConcurrentHashMap<String, PlayerData>();
+
+    // the players added and removed since the last commit
+    private ConcurrentLinkedQueue<PlayerData> joins = new ConcurrentLinkedQueue<PlayerData>();
+    private ConcurrentLinkedQueue<PlayerData> leaves = new ConcurrentLinkedQueue<PlayerData>();
+
+    // the players as of the last commit
+    private volatile PlayerData[] snapshot = EMPTY;
+
+    /**
+     * Get the player for the given address.
+     *
+     * @param addr
+     * @return The player, or null if there is no such player.
+     */
+    public PlayerData get(String addr) {
+        return members.get(addr);
+    }
+
+    /**
+     * Check whether the player for the given address exists.
+     *
+     * @param addr
+     * @return
+     */
+    public boolean contains(String addr) {
+        return members.containsKey(addr);
+    }
+
+    /**
+     * Get the number of players.
+     *
+     * @return
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Check whether there are no players.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * Add a player. It replaces any existing player with the same address,
+     * which is removed from the snapshot by the next commit, the same as a
+     * removed player. The player is put in the snapshot by the next commit.
+     *
+     * @param player
+     * @return The replaced player, or null if there was none.
+     */
+    public PlayerData add(PlayerData player) {
+        PlayerData old = members.put(player.getAddr(), player);
+        if (old != null)
+            leaves.add(old);
+        joins.add(player);
+        return old;
+    }
+
+    /**
+     * Remove a player. The player is removed from the snapshot by the next
+     * commit.
+     *
+     * @param player
+     * @return Return true if the player was removed, or false if it was
+     * already removed.
+     */
+    public boolean remove(PlayerData player) {
+        if (!members.remove(player.getAddr(), player)) {
+            return false;
+        }
+        leaves.add(player);
+        return true;
+    }
+
+    /**
+     * Get the snapshot of the players as of the last commit. The returned
+     * array must not be modified.
+     *
+     * @return
+     */
+    public PlayerData[] snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Apply the players added and removed since the last commit, and publish
+     * a new snapshot if anything changed. This should be invoked only by the
+     * simulation between two steps.
+     *
+     * @param listener The listener to inform of the applied changes, or null.
+     * @return Return true if the snapshot changed, else false.
+     */
+    public boolean commit(Listener listener) {
+        if (joins.isEmpty() && leaves.isEmpty())
+            return false;
+
+        PlayerData[] old = snapshot;
+        PlayerData[] result = new PlayerData[old.length + joins.size()];
+        int count = 0;
+        for (int i=0; i<old.length; ++i)
+            result[count++] = old[i];
+
+        // the removed players are taken out of the new snapshot
+        for (PlayerData player = leaves.poll(); player != null; player = leaves.poll()) {
+            boolean joined = false;
+            for (int i=0; i<count; ++i) {
+                if (result[i] == player) {
+                    System.arraycopy(result, i+1, result, i, count-i-1);
+                    result[--count] = null;
+                    joined = true;
+                    break;
+                }
+            }
+            if (listener != null) {
+                if (joined)
+                    listener.left(player);
+                else
+                    listener.dropped(player);
+            }
+        }
+
+        // the added players are appended, unless removed again already
+        for (PlayerData player = joins.poll(); player != null; player = joins.poll()) {
+            if (members.get(player.getAddr()) == player) {
+                if (count == result.length) {
+                    // more players were added during the commit
+                    PlayerData[] larger = new PlayerData[2 * count + 1];
+                    System.arraycopy(result, 0, larger, 0, count);
+                    result = larger;
+                }
+                result[count++] = player;
+                if (listener != null)
+                    listener.joined(player);
+            }
+        }
+
+        PlayerData[] value = new PlayerData[count];
+        System.arraycopy(result, 0, value, 0, count);
+        snapshot = value;
+        return true;
+    }
+
+    /**
+     * Get the current players, including the ones not yet committed. The
+     * returned collection can be iterated while players are added or removed.
+     * It should be used only when the snapshot is not good enough, e.g., to
+     * remove all the players.
+     *
+     * @return
+     */
+    public Collection<PlayerData> values() {
+        return members.values();
+    }
+}
@@ -0,0 +1,646 @@
+package edu.usfca;
+
+import java.util.Arrays;
+
+/**
+ * The structure-of-arrays store of the players' car state. Instead of one
+ * object per car, each value such as x, y, speed and angle is kept in its
+ * own primitive array, called a column, indexed by the player's slot. The
+ * PlayerData is a thin view over one slot of the store.
+ *
+ * The game simulation updates all the cars of the game in one tight loop
+ * over the columns, which touches only contiguous memory instead of
+ * chasing a pointer per car. A PlayerData created on its own uses a store
+ * with a single slot, which is same as the object per car layout.
+ *
+ * The store keeps its own clock, the simulation time, which is advanced by
+ * every update of all the cars. All the times of the cars are in this
+ * simulation time instead of the wall clock, so that a recorded game can be
+ * replayed faster than real time with the same result.
+ *
+ * The SPOT sends a tilt sample only when the tilt changes, with a heartbeat
+ * in between, so samples arrive at a variable rate, about ten a second,
+ * while the cars are updated every step. The last sample of a car is held,
+ * and a part of the action, in proportion to the step duration, is applied
+ * in every step for as long as the player is active, so that holding the
+ * SPOT accelerates the car at the same rate per control interval no matter
+ * how few samples are sent, and without a visible step every sample.
+ *
+ * Between two samples the tilt is extrapolated (dead reckoning) from the
+ * rate of change of the last samples. The rate is limited to what a player
+ * can do, and the extrapolation decays, so that it never goes further than
+ * the rate times a time constant from the last sample, even when a packet
+ * is lost. Each sample counts from the time it was taken on the SPOT, using
+ * its age, not the time its packet arrived. When a new sample arrives, the
+ * difference between the old estimate and the new one is kept as an offset
+ * that decays over a short reconcile time, so that the car does not jump.
+ *
+ * The update of the positions, which runs for every car in every step, is
+ * a loop without branches or trigonometry, which the JIT compiler can
+ * vectorize: the direction of a car is kept as the sine and cosine of its
+ * angle, computed only when the angle changes, and a released slot has no
+ * speed, so that it is updated along with the others and left where it is.
+ *
+ * The store is not synchronized. The game data allocates and releases the
+ * slots while holding the same lock as the simulation step, so that the
+ * columns are never grown while a loop runs over them.
+ *
+ * @author mamta
+ */
+public class PlayerStore {
+    // after how many milliseconds should a player data expire if no activity
+    private static final int EXPIRE_AFTER_INACTIVITY = 5000;
+
+    // after how many milisecond after last activity, should player be marked
+    // inactive. An inactive player is removed after 5000-1000 of inactivity.
+    static final int RECENT_ACTIVITY_TIMEOUT = 1000;
+
+    // the milliseconds over which the full input action of a car is applied.
+    // A step applies the part of the action for its duration.
+    static final int CONTROL_INTERVAL = 100;
+
+    // the maximum rate of change of the extrapolated tilt, in degrees per
+    // millisecond, and the time constant of its decay, in milliseconds
+    private static final double MAX_TILT_RATE = 0.3;
+    private static final double EXTRAPOLATION_TIME = 100;
+
+    // the time in milliseconds over which the rate is averaged, so that the
+    // noise of two close samples does not give a large rate
+    private static final double RATE_TIME = 100;
+
+    // the time constant in milliseconds of the decay of the offset between
+    // the old and the new estimate when a new sample arrives
+    private static final double RECONCILE_TIME = 60;
+
+    // the maximum tilt in degrees that is useful
+    private static final double MAX_TILT = 90;
+
+    // how far in map units the car is placed back from the point of contact
+    // with an obstruction, so that it does not overlap it due to rounding
+    private static final double CONTACT_GAP = 0.01;
+
+    // the number of total damages before marking the car as completely damaged.
+    static final int DAMAGE_LIMIT = 100;
+
+    // what is the absolute speed below which the car is made stationary.
+    private static final double SPEED_MIN = 3;
+
+    // how much acceleration to apply to positive speed in positive yd (gas).
+    // For negative yd (brake), the acceleration is double
+    private static final double SPEED_ACCELERATION_FACTOR = 1/20.0;
+
+    // how much acceleration to apply to negative speed.
+    private static final double SPEED_DECELERATION_FACTOR = 1/100.0;
+
+    // how much angle change should be applied for xd (steering control).
+    private static final double ANGLE_CHANGE_FACTOR = 1/20.0;
+
+    // how much speed should reduce for inactivity
+    private static final double SPEED_DECELERATE_ON_INACTIVITY = 2;
+
+    // what is the speed factor to apply in each interval
+    private static final double SPEED_FACTOR = 1/200.0;
+
+    // what is the minimum speed tilt (yd/gas/brake) below which the data is ignored
+    private static final int MIN_SPEED_TILT = 10;
+
+    // what is the minimum angle tilt (xd/steering) below which the data is ignored
+    private static final int MIN_ANGLE_TILT = 10;
+
+    // the position, speed, angle and damage count of the car
+    double[] x;
+    double[] y;
+    double[] speed;
+    double[] angle;
+    double[] damage;
+
+    // the expiry, last activity and last damage time, and the finish duration
+    long[] expires;
+    long[] lastActivity;
+    long[] lastDamage;
+    long[] finishDuration;
+
+    // the sine and cosine of the angle, the x and y of the direction the
+    // car moves in
+    double[] dirX;
+    double[] dirY;
+
+    // the interval of the last update, and the position before it
+    int[] interval;
+    double[] fromX;
+    double[] fromY;
+
+    // the held input action (xd, yd, zd), whether it is held, and the time
+    // it was taken
+    int[] inputX;
+    int[] inputY;
+    int[] inputZ;
+    boolean[] held;
+    long[] inputTime;
+
+    // the x and y rate of change of the input in degrees per millisecond,
+    // and the x and y offset of the estimate still to be reconciled
+    double[] rateX;
+    double[] rateY;
+    double[] errorX;
+    double[] errorY;
+
+    // whether the slot is in use, and whether the player has finished
+    boolean[] used;
+    boolean[] finished;
+
+    // the simulation time in milliseconds
+    private volatile long time = 0;
+
+    // the number of slots up to the highest slot in use
+    private int count = 0;
+
+    // the released slots that can be allocated again
+    private int[] free;
+    private int freeCount = 0;
+
+    /**
+     * Construct a new store with the initial number of slots. The store
+     * grows as needed.
+     *
+     * @param capacity
+     */
+    public PlayerStore(int capacity) {
+        resize(Math.max(1, capacity));
+    }
+
+    /**
+     * Allocate a slot for a new car at the start position.
+     *
+     * @param startX
+     * @param startY
+     * @return The slot.
+     */
+    public int allocate(double startX, double startY) {
+        int slot;
+        if (freeCount > 0)
+            slot = free[--freeCount];
+        else {
+            if (count == x.length)
+                resize(2 * count);
+            slot = count++;
+        }
+
+        x[slot] = startX;
+        y[slot] = startY;
+        speed[slot] = 0;
+        angle[slot] = 0;
+        dirX[slot] = 0;
+        dirY[slot] = 1;
+        damage[slot] = 0;
+        expires[slot] = time + EXPIRE_AFTER_INACTIVITY;
+        // no activity or damage yet
+        lastActivity[slot] = Long.MIN_VALUE / 2;
+        lastDamage[slot] = Long.MIN_VALUE / 2;
+        finishDuration[slot] = -1;
+        interval[slot] = 10;
+        fromX[slot] = startX;
+        fromY[slot] = startY;
+        held[slot] = false;
+        finished[slot] = false;
+        used[slot] = true;
+        return slot;
+    }
+
+    /**
+     * Release the slot of a removed car, so that it can be allocated again.
+     *
+     * @param slot
+     */
+    public void release(int slot) {
+        if (used[slot]) {
+            used[slot] = false;
+            held[slot] = false;
+            speed[slot] = 0;
+            free[freeCount++] = slot;
+        }
+    }
+
+    /**
+     * Copy the car in the slot to a new store, at the same slot. The slot
+     * of the new store is in use, and no other.
+     *
+     * @param slot
+     * @return
+     */
+    public PlayerStore copy(int slot) {
+        PlayerStore result = new PlayerStore(slot + 1);
+        result.x[slot] = x[slot];
+        result.y[slot] = y[slot];
+        result.speed[slot] = speed[slot];
+        result.angle[slot] = angle[slot];
+        result.dirX[slot] = dirX[slot];
+        result.dirY[slot] = dirY[slot];
+        result.damage[slot] = damage[slot];
+        result.expires[slot] = expires[slot];
+        result.lastActivity[slot] = lastActivity[slot];
+        result.lastDamage[slot] = lastDamage[slot];
+        result.finishDuration[slot] = finishDuration[slot];
+        result.interval[slot] = interval[slot];
+        result.fromX[slot] = fromX[slot];
+        result.fromY[slot] = fromY[slot];
+        result.inputX[slot] = inputX[slot];
+        result.inputY[slot] = inputY[slot];
+        result.inputZ[slot] = inputZ[slot];
+        result.held[slot] = held[slot];
+        result.inputTime[slot] = inputTime[slot];
+        result.rateX[slot] = rateX[slot];
+        result.rateY[slot] = rateY[slot];
+        result.errorX[slot] = errorX[slot];
+        result.errorY[slot] = errorY[slot];
+        result.used[slot] = true;
+        result.finished[slot] = finished[slot];
+        result.time = time;
+        result.count = slot + 1;
+        return result;
+    }
+
+    /**
+     * Get the simulation time in milliseconds.
+     *
+     * @return
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Get the number of slots up to the highest slot in use.
+     *
+     * @return
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Some activity received from player. Set the last activity and expires.
+     *
+     * @param slot
+     * @param now
+     */
+    public void setActivity(int slot, long now) {
+        lastActivity[slot] = now;
+        expires[slot] = now + EXPIRE_AFTER_INACTIVITY;
+    }
+
+    /**
+     * Set the held input action of the car, replacing the previous one. It is
+     * applied from the next applyActions.
+     *
+     * @param slot
+     * @param xd
+     * @param yd
+     * @param zd
+     */
+    public void setInput(int slot, int xd, int yd, int zd) {
+        setInput(slot, xd, yd, zd, 0);
+    }
+
+    /**
+     * Set the held input action of the car from a sample taken some time
+     * ago, replacing the previous one. A sample taken before the held one is
+     * ignored. The samples of a packet must be set oldest first.
+     *
+     * The rate of change is updated from the previous sample, and the
+     * difference of the estimate before and after the sample is kept as
+     * the offset to reconcile.
+     *
+     * @param slot
+     * @param xd
+     * @param yd
+     * @param zd
+     * @param age How many milliseconds ago the sample was taken.
+     */
+    public void setInput(int slot, int xd, int yd, int zd, int age) {
+        long start = time - age;
+        if (held[slot]) {
+            if (start < inputTime[slot])
+                return;
+
+            // the estimate now from the old input
+            long since = inputTime[slot];
+            double decayed = decay(time - since);
+            double oldX = estimate(inputX[slot], rateX[slot], decayed) + errorX[slot];
+            double oldY = estimate(inputY[slot], rateY[slot], decayed) + errorY[slot];
+
+            long dt = start - since;
+            if (dt > 0) {
+                double weight = Math.min(1, dt / RATE_TIME);
+                rateX[slot] += (limitRate((double) (xd - inputX[slot]) / dt) - rateX[slot]) * weight;
+                rateY[slot] += (limitRate((double) (yd - inputY[slot]) / dt) - rateY[slot]) * weight;
+            }
+            decayed = decay(age);
+            errorX[slot] = oldX - estimate(xd, rateX[slot], decayed);
+            errorY[slot] = oldY - estimate(yd, rateY[slot], decayed);
+        }
+        else {
+            rateX[slot] = 0;
+            rateY[slot] = 0;
+            errorX[slot] = 0;
+            errorY[slot] = 0;
+        }
+
+        inputX[slot] = xd;
+        inputY[slot] = yd;
+        inputZ[slot] = zd;
+        inputTime[slot] = start;
+        held[slot] = true;
+    }
+
+    /**
+     * Apply the held input action of all the cars for the duration of a step.
+     *
+     * @param duration
+     * @param enabled Whether to apply the action. If false, the action is
+     * skipped, e.g., when the game is not started.
+     */
+    public void applyActions(int duration, boolean enabled) {
+        applyActions(0, count, duration, enabled);
+    }
+
+    /**
+     * Apply the held input action of the cars in the range of slots for the
+     * duration of a step. The part of the action in proportion to the
+     * duration and the control interval is applied. The action is applied
+     * only while the player has recent activity, so that a silent SPOT does
+     * not keep driving the car.
+     * The action is the tilt extrapolated from the held input to the current
+     * time, plus the offset still to be reconciled, which decays in every step.
+     * The action is given in xd, yd, zd for tilt of SPOT in three dimensions.
+     * The xd controls the angle and yd speed. zd is ignored.
+     * The action is not applied to a completely damaged car.
+     *
+     * @see PlayerData#setAction(int, int, int)
+     * @param from The first slot.
+     * @param to The slot after the last one.
+     * @param duration
+     * @param enabled Whether to apply the action.
+     */
+    void applyActions(int from, int to, int duration, boolean enabled) {
+        long now = time;
+        double fraction = (double) duration / CONTROL_INTERVAL;
+        double decay = Math.exp(-duration / RECONCILE_TIME);
+        for (int i=from; i<to; ++i) {
+            if (!held[i])
+                continue;
+            if ((now - lastActivity[i]) >= RECENT_ACTIVITY_TIMEOUT) {
+                held[i] = false;
+                continue;
+            }
+
+            double decayed = decay(now - inputTime[i]);
+            double xd = limitTilt(estimate(inputX[i], rateX[i], decayed) + errorX[i]);
+            double yd = limitTilt(estimate(inputY[i], rateY[i], decayed) + errorY[i]);
+            errorX[i] *= decay;
+            errorY[i] *= decay;
+
+            if (!enabled || damage[i] >= DAMAGE_LIMIT)
+                continue;
+            if (Math.abs(yd) > MIN_SPEED_TILT) {
+                double s = speed[i];
+                double target = s;
+                if (s >= 0) {
+                    if (yd > 0) {
+                        target += yd*SPEED_ACCELERATION_FACTOR;
+                    }
+                    else {
+                        target += yd*2*SPEED_ACCELERATION_FACTOR;
+                    }
+                }
+                else {
+                    target += yd*SPEED_DECELERATION_FACTOR;
+                }
+
+                if (target > (PlayerData.SPEED_FORWARD_MAX - damage[i]))
+                    target = (PlayerData.SPEED_FORWARD_MAX - damage[i]);
+                else if (target < -PlayerData.SPEED_REVERSE_MAX)
+                    target = -PlayerData.SPEED_REVERSE_MAX;
+
+                // the speed the full action would give is taken as the
+                // target, so that a small part of it is not made stationary
+                if (Math.abs(target) < SPEED_MIN)
+                    s = 0;
+                else
+                    s += (target - s)*fraction;
+                speed[i] = s;
+            }
+
+            if (Math.abs(xd) > MIN_ANGLE_TILT) {
+                angle[i] += xd*ANGLE_CHANGE_FACTOR*fraction;
+                double radians = Math.toRadians(angle[i]);
+                dirX[i] = Math.sin(radians);
+                dirY[i] = Math.cos(radians);
+            }
+        }
+    }
+
+    /**
+     * Get the part of the extrapolation time by which the held input is
+     * extrapolated. It decays with the time since the input was taken, so
+     * that the extrapolation stays within the rate times the extrapolation
+     * time. It is the same for x and y, so it is computed once for both.
+     *
+     * @param dt The milliseconds since the input was taken.
+     * @return
+     */
+    private static double decay(long dt) {
+        return (dt > 0 ? 1 - Math.exp(-dt / EXTRAPOLATION_TIME) : 0);
+    }
+
+    /**
+     * Extrapolate the held input to the time.
+     *
+     * @see #decay(long)
+     * @param input The held input.
+     * @param rate The rate of change of the input.
+     * @param decayed The decay for the milliseconds since the input was taken.
+     * @return
+     */
+    private static double estimate(int input, double rate, double decayed) {
+        return input + rate*EXTRAPOLATION_TIME*decayed;
+    }
+
+    /**
+     * Limit the rate of change of the tilt to the maximum rate.
+     *
+     * @param rate
+     * @return
+     */
+    private static double limitRate(double rate) {
+        return Math.max(-MAX_TILT_RATE, Math.min(MAX_TILT_RATE, rate));
+    }
+
+    /**
+     * Limit the tilt to the useful range.
+     *
+     * @param tilt
+     * @return
+     */
+    private static double limitTilt(double tilt) {
+        return Math.max(-MAX_TILT, Math.min(MAX_TILT, tilt));
+    }
+
+    /**
+     * Advance the simulation time by the duration, and update the position
+     * of all the cars for the duration.
+     *
+     * @param duration
+     */
+    public void update(int duration) {
+        time += duration;
+        update(0, count, duration, time);
+    }
+
+    /**
+     * In every interval (duration) update the position of the cars in the
+     * range of slots based on the speed and angle. An inactive car slows
+     * down to 0. The loops have no branch, and they run over the released
+     * slots too, which have no speed.
+     *
+     * @see PlayerData#update(int)
+     * @param from The first slot.
+     * @param to The slot after the last one.
+     * @param duration
+     * @param now The current time.
+     */
+    void update(int from, int to, int duration, long now) {
+        double factor = duration*SPEED_FACTOR;
+        double decelerate = SPEED_DECELERATE_ON_INACTIVITY*factor*2;
+
+        Arrays.fill(interval, from, to, duration);
+        for (int i=from; i<to; ++i) {
+            double s = speed[i];
+            fromX[i] = x[i];
+            fromY[i] = y[i];
+            x[i] += s*dirX[i]*factor;
+            y[i] += s*dirY[i]*factor;
+        }
+
+        // the speed of an inactive car goes toward 0, without passing it
+        long inactive = now - RECENT_ACTIVITY_TIMEOUT;
+        for (int i=from; i<to; ++i) {
+            double s = speed[i];
+            double slow = (lastActivity[i] <= inactive ? decelerate : 0);
+            speed[i] = Math.copySign(Math.max(0, Math.abs(s) - slow), s);
+        }
+    }
+
+    /**
+     * When the car collides, it increases the damage count, and sets the
+     * speed to 0. It also positions the car to just before the collision.
+     *
+     * @see PlayerData#damaged()
+     * @param slot
+     * @param now
+     */
+    public void damaged(int slot, long now) {
+        double s = speed[slot];
+        x[slot] -= 2*s*dirX[slot]*interval[slot]*SPEED_FACTOR;
+        y[slot] -= 2*s*dirY[slot]*interval[slot]*SPEED_FACTOR;
+        damage(slot, now);
+    }
+
+    /**
+     * When the car hits an obstruction during the last update, it is placed
+     * back at the point of contact, instead of just before the collision,
+     * and damaged the same way.
+     *
+     * @see PlayerData#collided(double)
+     * @param slot
+     * @param impact The time of impact, as a fraction of the last update.
+     * @param now
+     */
+    public void collided(int slot, double impact, long now) {
+        double dx = x[slot] - fromX[slot];
+        double dy = y[slot] - fromY[slot];
+        double distance = Math.sqrt(dx*dx + dy*dy);
+        double t = (distance > 0 ? Math.max(0, impact - CONTACT_GAP/distance) : 0);
+        x[slot] = fromX[slot] + dx*t;
+        y[slot] = fromY[slot] + dy*t;
+        damage(slot, now);
+    }
+
+    /**
+     * Increase the damage count of the car by its speed, and set the speed to 0.
+     *
+     * @param slot
+     * @param now
+     */
+    private void damage(int slot, long now) {
+        double s = speed[slot];
+        damage[slot] += Math.abs((s <= PlayerData.SPEED_FORWARD_MAX/2 ? s : 4*s)/10.0);
+        speed[slot] = 0;
+        lastDamage[slot] = now;
+    }
+
+    /**
+     * Grow the columns to the given number of slots.
+     *
+     * @param capacity
+     */
+    private void resize(int capacity) {
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        speed = grow(speed, capacity);
+        angle = grow(angle, capacity);
+        dirX = grow(dirX, capacity);
+        dirY = grow(dirY, capacity);
+        damage = grow(damage, capacity);
+        expires = grow(expires, capacity);
+        lastActivity = grow(lastActivity, capacity);
+        lastDamage = grow(lastDamage, capacity);
+        finishDuration = grow(finishDuration, capacity);
+        interval = grow(interval, capacity);
+        fromX = grow(fromX, capacity);
+        fromY = grow(fromY, capacity);
+        inputX = grow(inputX, capacity);
+        inputY = grow(inputY, capacity);
+        inputZ = grow(inputZ, capacity);
+        held = grow(held, capacity);
+        inputTime = grow(inputTime, capacity);
+        rateX = grow(rateX, capacity);
+        rateY = grow(rateY, capacity);
+        errorX = grow(errorX, capacity);
+        errorY = grow(errorY, capacity);
+        used = grow(used, capacity);
+        finished = grow(finished, capacity);
+        free = grow(free, capacity);
+    }
+
+    /**
+     * Utility methods to copy a column to a larger column.
+     */
+    private static double[] grow(double[] column, int capacity) {
+        double[] result = new double[capacity];
+        if (column != null)
+            System.arraycopy(column, 0, result, 0, column.length);
+        return result;
+    }
+
+    private static long[] grow(long[] column, int capacity) {
+        long[] result = new long[capacity];
+        if (column != null)
+            System.arraycopy(column, 0, result, 0, column.length);
+        return result;
+    }
+
+    private static int[] grow(int[] column, int capacity) {
+        int[] result = new int[capacity];
+        if (column != null)
+            System.arraycopy(column, 0, result, 0, column.length);
+        return result;
+    }
+
+    private static boolean[] grow(boolean[] column, int capacity) {
+        boolean[] result = new boolean[capacity];
+        if (column != null)
+            System.arraycopy(column, 0, result, 0, column.length);
+        return result;
+    }
+}
@@ -5,8 +5,7 @@ import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Polygon;
 import java.awt.Rectangle;
-import java.util.Iterator;
-import javax.swing.JPanel;
+import java.awt.image.BufferedImage;
 
 /**
  * The individual player view displayed on the right. It automatically adjust the
@@ -16,13 +15,15 @@ import javax.swing.JPanel;
  * The player view displays the player's car and correct direction at the origin
  * position, and all others (grid and obstructions) relative to this.
  * The grid is displayed so that the view appears moving.
+ *
+ * The grid, the static obstructions and the map boundaries are copied from
+ * the pre-rendered tiles of the tile cache shared by all the player views,
+ * and only the moving obstructions are drawn on top of the tiles. The view
+ * is drawn in every frame by the frame scheduler.
  * 
  * @author mamta
  */
-public class PlayerView extends JPanel implements Runnable {
-    // how often in milliseconds to repaint the view
-    private static final int PAINT_INTERVAL = 20;
-
+public class PlayerView extends FrameView {
     // various colors
     private static final Color bgColor = Color.BLACK;
     private static final Color fgColor = Color.LIGHT_GRAY;
@@ -34,89 +35,150 @@ public class PlayerView extends JPanel implements Runnable {
     // temporarily on the car.
     private static final int BANG_RADIUS = 30;
 
-    // the x,y spacing of the grid that is displayed.
-    private static final int gridSpace = 150;
     private static final Font textFont = new Font("Arial", Font.PLAIN, 14);
 
+    // the text of every speed and damage count, so that no string is
+    // created to draw them in every frame
+    private static final String[] speedText = createText(-PlayerData.SPEED_REVERSE_MAX, PlayerData.SPEED_FORWARD_MAX);
+    private static final String[] damageText = createText(0, PlayerStore.DAMAGE_LIMIT);
+
     // this player's data
     private PlayerData data;
 
     // the global game data needed for drawing obstructions
     private GameData gameData;
 
+    // the shared cache of the map tiles
+    private TileCache tiles;
+
+    // the car shape reused by every frame
+    private Polygon car = new Polygon();
+
+    // the finish text, created once the player finishes
+    private String finishText = null;
+
+    // the latency stage metrics, and whether the frame being drawn shows
+    // the traced input sample
+    private Histogram[] latency;
+    private boolean tracing = false;
+
+    // whether to show the latency overlay, and its text updated every few frames
+    private boolean overlay = false;
+    private String[] overlayText = new String[LatencyTrace.STAGES.length];
+    private int overlayFrames = 0;
+
     /**
-     * Start the player thread.
+     * Construct a new player view.
      * 
      * @param gameData
      * @param data
+     * @param tiles The tile cache shared by all player views.
      */
-    public PlayerView(GameData gameData, PlayerData data) {
+    public PlayerView(GameData gameData, PlayerData data, TileCache tiles) {
         this.gameData = gameData;
         this.data = data;
-        setDoubleBuffered(true);
+        this.tiles = tiles;
 
-        Thread th = new Thread(this);
-        th.start();
+        latency = new Histogram[LatencyTrace.STAGES.length];
+        for (int i=0; i<latency.length; ++i)
+            latency[i] = gameData.getMetrics().getHistogram(LatencyTrace.STAGES[i]);
+    }
+
+    /**
+     * Show or hide the overlay with the input latency percentiles.
+     *
+     * @param overlay
+     */
+    public void setOverlay(boolean overlay) {
+        this.overlay = overlay;
     }
 
     /**
      * The paint method draws the player view:
-     * background, grid, player's car, obstructions, control view.
+     * map tiles, moving obstructions, player's car, control view.
      * @param g
      */
     @Override
-    public void paintComponent(Graphics g) {
-        super.paintComponent(g);
+    public void render(Graphics g) {
+        // the frame shows the traced input only if its step was complete before
+        tracing = data.getTrace().isStepped();
 
-        drawGrid(g);
+        drawTiles(g);
         drawObstructions(g);
         drawCar(g);
         drawControl(g);
+        if (overlay)
+            drawOverlay(g);
     }
 
     /**
-     * Draw the Grid. It assumes the car position at (1/2)*width and (3/4)*height.
-     * It draws grid relative to the car position in this view, assuming the
-     * grid-spacing uniformly from data position of (0,0).
+     * Record the latency of the traced input sample, if this frame shows it.
+     *
+     * @param rendered
+     * @param shown
      */
-    private void drawGrid(Graphics g) {
-        // view size
+    @Override
+    protected void frameShown(long rendered, long shown) {
+        if (tracing)
+            data.getTrace().shown(rendered, shown, latency);
+    }
+
+    /**
+     * Draw the latency overlay: the median and 99th percentile of every
+     * stage from the input sample received to the frame shown, in ms. The
+     * text is updated every 25 frames.
+     *
+     * @param g
+     */
+    private void drawOverlay(Graphics g) {
+        if (overlayFrames++ % 25 == 0) {
+            for (int i=0; i<latency.length; ++i) {
+                Histogram h = latency[i];
+                overlayText[i] = h.getName() + " p50 " + h.getP50() / 1000.0 + " p99 " + h.getP99() / 1000.0 + " ms";
+            }
+        }
+        g.setFont(textFont);
+        g.setColor(fgColorFinish);
+        for (int i=0; i<overlayText.length; ++i)
+            g.drawString(overlayText[i], 10, 20 + 18*i);
+    }
+
+    /**
+     * Draw the map tiles under the view. It assumes the car position at
+     * (1/2)*width and (3/4)*height. The tiles have the grid, the static
+     * obstructions and the map boundaries.
+     * @param g
+     */
+    private void drawTiles(Graphics g) {
+        // view size and player position
         int viewWidth = getWidth();
         int viewHeight = getHeight();
-
-        // player position
         double x = data.getX();
         double y = data.getY();
 
-        // draw background
-        g.setColor(bgColor);
-        g.fillRect(1, 1, viewWidth-2, viewHeight-2);
-
-        g.setColor(fgColor);
-
-        // draw vertical lines on the left of player
-        for (int x1= -(((int) x) % gridSpace) + viewWidth/2; x1 >= 0; x1 -= gridSpace) {
-            g.drawLine(x1, 0, x1, viewHeight-1);
-        }
-
-        // draw vertical lines on the right of player
-        for (int x1= -(((int) x) % gridSpace) + viewWidth/2 + gridSpace; x1 < viewWidth; x1 += gridSpace) {
-            g.drawLine(x1, 0, x1, viewHeight-1);
-        }
-
-        // draw horizontal lines below of player
-        for (int y1= (((int) y) % gridSpace) + 3*viewHeight/4; y1 < viewHeight; y1 += gridSpace) {
-            g.drawLine(0, y1, viewWidth-1, y1);
-        }
+        MapData map = gameData.getMapData();
 
-        // draw horizontal lines above of player
-        for (int y1= (((int) y) % gridSpace) + 3*viewHeight/4 - gridSpace; y1 >= 0; y1 -= gridSpace) {
-            g.drawLine(0, y1, viewWidth-1, y1);
+        // the left, bottom and top of the view with respect to data co-ordinates
+        int left = (int)(x-viewWidth/2);
+        int bottom = (int)(y-viewHeight/4);
+        int top = bottom + viewHeight;
+
+        int size = TileCache.TILE_SIZE;
+        int column1 = floorDiv(left, size);
+        int column2 = floorDiv(left + viewWidth - 1, size);
+        int row1 = floorDiv(bottom, size);
+        int row2 = floorDiv(top - 1, size);
+        for (int row = row1; row <= row2; ++row) {
+            for (int column = column1; column <= column2; ++column) {
+                BufferedImage tile = tiles.get(map, column, row);
+                g.drawImage(tile, column * size - left, top - (row + 1) * size, null);
+            }
         }
     }
 
     /**
-     * Draw the obstructions in the map data.
+     * Draw the moving obstructions in the map data, which are not in the
+     * map tiles.
      * @param g
      */
     private void drawObstructions(Graphics g) {
@@ -127,34 +189,27 @@ public class PlayerView extends JPanel implements Runnable {
         double y = data.getY();
 
         MapData map = gameData.getMapData();
-        g.setColor(Color.LIGHT_GRAY);
-
-        // the view rectangle with respect to data co-ordinates
-        Rectangle rect1 = new Rectangle((int)(x-viewWidth/2), (int)(y-viewHeight/4), viewWidth, viewHeight);
+        g.setColor(fgColor);
 
-        // draw all the obstructions
-        for (Iterator<Rectangle> it = map.getObstructions().iterator(); it.hasNext(); ) {
-            Rectangle rect2 = it.next();
-            if (rect1.intersects(rect2)) {
-                Rectangle rect3 = data2view(rect2, rect1);
-                g.fillRect(rect3.x, rect3.y, rect3.width, rect3.height);
+        // the left, bottom and top of the view with respect to data co-ordinates
+        int left = (int)(x-viewWidth/2);
+        int bottom = (int)(y-viewHeight/4);
+        int top = bottom + viewHeight;
+
+        Rectangle[] obstructions = map.getObstructionSnapshot();
+        try {
+            int[] moving = map.getMovingObstructions();
+            for (int i=0; i<moving.length; ++i) {
+                if (moving[i] >= obstructions.length)
+                    continue;
+                Rectangle rect = obstructions[moving[i]];
+                if (rect.x < left + viewWidth && rect.x + rect.width > left
+                        && rect.y < top && rect.y + rect.height > bottom) {
+                    g.fillRect(rect.x - left, top - (rect.y + rect.height), rect.width, rect.height);
+                }
             }
-        }
-
-        // now draw the map boundaries, relative to the view
-        Rectangle bounds = map.getBounds();
-        if (rect1.x < bounds.x) {
-            g.fillRect(1, 1, (int) (bounds.x - rect1.x), viewHeight-1);
-        }
-        if ((rect1.x + rect1.width) > (bounds.x + bounds.width)) {
-            int x1 = (int) ((rect1.x + rect1.width) - (bounds.x + bounds.width));
-            g.fillRect(viewWidth-x1, 1, x1, viewHeight);
-        }
-        if ((rect1.y + rect1.height) > (bounds.y + bounds.height)) {
-            g.fillRect(1, 1, viewWidth, (rect1.y + rect1.height) - (bounds.y + bounds.height));
-        }
-        if (rect1.y < bounds.y) {
-            g.fillRect(1, viewHeight - (bounds.y-rect1.y), viewWidth, bounds.y-rect1.y);
+        } finally {
+            map.releaseObstructionSnapshot(obstructions);
         }
     }
 
@@ -171,14 +226,14 @@ public class PlayerView extends JPanel implements Runnable {
         // if car was recently collided draw the red circle.
         if (data.isRecentlyDamaged()) {
             g.setColor(fgColorWarning);
-            g.fillOval(viewWidth/2-BANG_RADIUS, 3*viewHeight/4-BANG_RADIUS, 2*BANG_RADIUS, 2*BANG_RADIUS);
+            fillCircle(g, viewWidth/2-BANG_RADIUS, 3*viewHeight/4-BANG_RADIUS, 2*BANG_RADIUS);
         }
 
         // different players have different car colors
         g.setColor(data.getCarColor());
 
         // get the car polygone based on the direction, relative to the view
-        Polygon p = data.getCarPolygon(viewWidth, viewHeight);
+        Polygon p = data.getCarPolygon(viewWidth, viewHeight, car);
         g.fillPolygon(p);
 
         // also draw the direction on the car
@@ -211,7 +266,9 @@ public class PlayerView extends JPanel implements Runnable {
         if (data.hasFinished()) {
             // if player has crossed the finish line
             g.setColor(fgColorFinish);
-            g.drawString("Finished in " + data.getFinishDuration() / 1000.0 + " seconds", 20, yText);
+            if (finishText == null)
+                finishText = "Finished in " + data.getFinishDuration() / 1000.0 + " seconds";
+            g.drawString(finishText, 20, yText);
         }
         else if (data.isCompletelyDamaged()) {
             // if player's car is completely damaged.
@@ -238,17 +295,17 @@ public class PlayerView extends JPanel implements Runnable {
 
             int x0 = 20+50;
             int y0 = yText-20;
-            g.fillOval(x0-3, y0-3, 6, 6);
+            fillCircle(g, x0-3, y0-3, 6);
             g.drawLine(x0, y0, x0-xd, y0-yd);
 
             // write the speed as text as well
             g.setColor(fgColor);
-            g.drawString(String.valueOf((int) data.getSpeed()), x0, y0+20);
+            g.drawString(getText(speedText, -PlayerData.SPEED_REVERSE_MAX, (int) data.getSpeed()), x0, y0+20);
 
             // display the damage bar, as well as count.
             int damage = (int) data.getDamage();
             g.setColor(fgColorWarning);
-            g.drawString(String.valueOf((int) data.getDamage()), 20 + 100 + 10, yText+10);
+            g.drawString(getText(damageText, 0, damage), 20 + 100 + 10, yText+10);
             g.fillRect(20 + 100 - damage, yText+5, damage, 5);
             g.setColor(fgColorFinish);
             g.fillRect(20, yText+5, 100-damage, 5);
@@ -259,39 +316,47 @@ public class PlayerView extends JPanel implements Runnable {
         // the base station, assuming he wants to continue to play.
         if (gameData.isStarted() && !data.hasRecentActivity()) {
             g.setColor(fgColorWarning);
-            g.fillOval(2, yText-10, 10, 10);
+            fillCircle(g, 2, yText-10, 10);
         }
     }
 
     /**
-     * Utility method to map a rectangle in game data to the local view.
-     * The x,y position is translated based on the bounds' position and
-     * size.
-     * 
-     * @param rect The rectangle to map
-     * @param bounds The bounds of the local view.
-     * @return The new rectangle with co-ordinates in the local view.
+     * Utility method to create the text of every value in the range.
+     *
+     * @param min
+     * @param max
+     * @return
      */
-    private Rectangle data2view(Rectangle rect, Rectangle bounds) {
-        int x1 = rect.x - bounds.x;
-        int y1 = (bounds.y + bounds.height) - (rect.y + rect.height);
-        return new Rectangle(x1, y1, rect.width, rect.height);
+    private static String[] createText(int min, int max) {
+        String[] text = new String[max - min + 1];
+        for (int i=0; i<text.length; ++i)
+            text[i] = String.valueOf(min + i);
+        return text;
     }
 
     /**
-     * The read method to periodically repaint, and update the player
-     * position.
+     * Utility method to get the text of the value from the created text,
+     * or a new text if the value is out of its range.
+     *
+     * @param text
+     * @param min The value of the first text.
+     * @param value
+     * @return
      */
-    public void run() {
-        while (true) {
-            try {
-                data.update(PAINT_INTERVAL);
-                this.repaint();
-                Thread.sleep(PAINT_INTERVAL);
-            }
-            catch (InterruptedException ex) {
-                break;
-            }
-        }
+    private static String getText(String[] text, int min, int value) {
+        int i = value - min;
+        return (i >= 0 && i < text.length ? text[i] : String.valueOf(value));
+    }
+
+    /**
+     * Utility method to divide rounding towards negative infinity, to get
+     * the tile of a position that may be negative.
+     *
+     * @param value
+     * @param divisor
+     * @return
+     */
+    private static int floorDiv(int value, int divisor) {
+        return (value >= 0 ? value / divisor : -((-value - 1) / divisor) - 1);
     }
 }
@@ -1,123 +1,281 @@
 package edu.usfca;
 
-import com.sun.spot.io.j2me.radiogram.Radiogram;
-import com.sun.spot.io.j2me.radiogram.RadiogramConnection;
-import com.sun.spot.util.IEEEAddress;
-import com.sun.spot.util.Utils;
 import java.awt.Color;
 import java.io.IOException;
-import javax.microedition.io.Connector;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 
 /**
  * The main base station application that launches the user interface as well as
  * conenctions to send and receive data from SPOTs.
+ * The sub-class can override the createGame method to run the game without
+ * the user interface.
  *
+ * The connections are made using a controller transport, which is the SPOT
+ * radio by default, or UDP on the localhost to use software controllers.
+ *
+ * @see Project4Server
  * @author mamta
  */
 public class Project4BaseStation {
-    // the port number to receive data on from SPOT
-    private static final int PORT_RECV = 40;
-
-    // the port number to send data to SPOT
-    private static final int PORT_SEND = 41;
-
     // the command code for setting the color of the SPOT LED.
     private static final int SET_COLOR = 80;
 
-    // The main application user interface panel
-    private ControlPanel panel;
+    // the command code of the packet of tilt samples from the SPOT, and
+    // the format version of it and of the acknowledgement.
+    private static final int SAMPLES = 81;
+    private static final int VERSION = 2;
+
+    // the size of the samples packet header: the samples command, version,
+    // 16 bit sequence number, 32 bit SPOT tick and the number of samples.
+    private static final int HEADER_SIZE = 9;
+
+    // the maximum size of a packet received from SPOT: the header, and the
+    // age and x, y, z tilt of each sample.
+    static final int MAX_PACKET_SIZE = HEADER_SIZE + 4*InputMailbox.MAX_SAMPLES;
+
+    // the transport to send data to the SPOTs and recv data from SPOTs.
+    private ControllerTransport transport;
+
+    // The game data model, created by the user interface panel
+    private GameData data;
+
+    // the log file to record the game to, if any
+    private String recordFile = null;
+
+    // the metrics of the packet gaps and links indexed by SPOT address
+    private Map<String, Histogram> gaps = new HashMap<String, Histogram>();
+    private Map<String, LinkMonitor> links = new HashMap<String, LinkMonitor>();
 
-    // the connection to send data to the SPOTs and recv data from SPOTs.
-    private RadiogramConnection connSend;
-    private Radiogram dgSend;
-    private RadiogramConnection connRecv;
-    private Radiogram dgRecv;
+    // the buffer to receive data
+    private byte[] recvBuffer = new byte[MAX_PACKET_SIZE];
+
+    // the queue of the commands sent to the SPOTs by its own thread
+    private CommandQueue commands;
+
+    // the addresses of the old SPOTs, seen only with three byte packets,
+    // which are sent the legacy commands
+    private Set<String> legacy = Collections.synchronizedSet(new HashSet<String>());
+
+    // the samples of the received packet
+    private int[] samples = new int[InputMailbox.MAX_SAMPLES];
 
     /**
-     * The main application method that opens connections, launches the control panel
-     * user interface and then handles any incoming input packet from the SPOTs.
+     * Construct the application using the given transport.
+     *
+     * @param transport
      */
-    public void run() {
-        try {
-            // create the send connection
-            connSend = (RadiogramConnection) Connector.open("radiogram://broadcast:" + String.valueOf(PORT_SEND));
-            connSend.setMaxBroadcastHops(1);
-            dgSend = (Radiogram) connSend.newDatagram(16);
+    public Project4BaseStation(ControllerTransport transport) {
+        this.transport = transport;
+    }
 
-            // create the receive connection
-            connRecv = (RadiogramConnection) Connector.open("radiogram://:" + String.valueOf(PORT_RECV));
-            dgRecv = (Radiogram) connRecv.newDatagram(4);
+    /**
+     * Set the log file to record the game to, or null to not record.
+     *
+     * @param file
+     */
+    public void setRecordFile(String file) {
+        recordFile = file;
+    }
 
-            // launch the user interface
-            panel = new ControlPanel(this, "Project 4");
+    /**
+     * The main application method that creates the game
+     * and then handles any incoming input packet from the SPOTs.
+     */
+    public void run() {
+        // launch the user interface, or the game without it
+        data = createGame();
+        if (recordFile != null)
+            startRecording();
+        commands = new CommandQueue(transport, data.getMetrics().getHistogram(Metrics.RADIO_ACK));
+        commands.start();
 
-            while (true) {
-                // receive packet
-                dgRecv.reset();
+        while (true) {
+            // receive packet
+            int length;
+            try {
+                length = transport.receive(recvBuffer);
+            } catch (Exception e) {
+                e.printStackTrace();
                 try {
-                    connRecv.receive(dgRecv);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    Utils.sleep(1000);
-                    continue;
+                    Thread.sleep(1000);
+                } catch (InterruptedException ex) {
+                    return;
                 }
+                continue;
+            }
 
-                // if this SPOT is not in our player list, add it
-                String src = dgRecv.getAddress();
-                if (!panel.hasPlayer(src)) {
-                    panel.addPlayer(src);
-                }
+            // the SPOT acknowledged the commands with these ids
+            String src = transport.getAddress();
+            if (length > 3 && recvBuffer[0] == CommandQueue.ACK && recvBuffer[1] == VERSION
+                    && length == 3 + recvBuffer[2]) {
+                for (int i=0; i<recvBuffer[2]; ++i)
+                    commands.acked(src, recvBuffer[3+i] & 0xff);
+                continue;
+            }
 
-                // get the input readings from the packet, and
-                // update the player state based on the input
-                if (dgRecv.getLength() == 3) {
-                    int xd = dgRecv.readByte();
-                    int yd = dgRecv.readByte();
-                    int zd = dgRecv.readByte();
-                    panel.setAction(src, xd, yd, zd);
-                }
-                else {
-                    System.out.println("empty data: " + dgRecv.getLength());
-                }
+            // record the gap since the last packet from this SPOT
+            Histogram gap = gaps.get(src);
+            if (gap == null) {
+                gap = data.getMetrics().getHistogram(Metrics.RADIO_GAP + src);
+                gaps.put(src, gap);
             }
+            gap.recordInterval(System.nanoTime() / 1000);
 
-        } catch (IOException ex) {
-            // recturn in case of exception
-            return;
+            LinkMonitor link = links.get(src);
+            if (link == null) {
+                link = data.getMetrics().getLink(src);
+                links.put(src, link);
+            }
+
+            // the old SPOT sends one reading in a three byte packet, and
+            // understands only the legacy commands
+            if (length == 3)
+                legacy.add(src);
+            else if (recvBuffer[0] == SAMPLES)
+                legacy.remove(src);
+
+            // if this SPOT is not in our player list, add it
+            // and set the new player's color.
+            if (!data.hasPlayer(src)) {
+                PlayerData player = data.addPlayer(src);
+                sendColor(src, player.getCarColor());
+                link.restart();
+            }
+
+            // get the input readings from the packet, and
+            // update the player state based on the input.
+            // The old SPOT sends one reading in a three byte packet,
+            // without a sequence number.
+            if (length == 3) {
+                int xd = recvBuffer[0];
+                int yd = recvBuffer[1];
+                int zd = recvBuffer[2];
+                data.setAction(src, xd, yd, zd);
+            }
+            else if (length > HEADER_SIZE && recvBuffer[0] == SAMPLES && recvBuffer[1] == VERSION
+                    && length == HEADER_SIZE + 4*recvBuffer[HEADER_SIZE-1]) {
+                int seq = ((recvBuffer[2] & 0xff) << 8) | (recvBuffer[3] & 0xff);
+                int tick = ((recvBuffer[4] & 0xff) << 24) | ((recvBuffer[5] & 0xff) << 16)
+                        | ((recvBuffer[6] & 0xff) << 8) | (recvBuffer[7] & 0xff);
+
+                // drop a late or duplicate packet, whose samples are stale
+                if (!link.accept(seq, tick, System.currentTimeMillis()))
+                    continue;
+
+                int count = recvBuffer[HEADER_SIZE-1];
+                for (int i=0; i<count; ++i) {
+                    int k = HEADER_SIZE + 4*i;
+                    samples[i] = InputMailbox.sample(recvBuffer[k] & 0xff,
+                            recvBuffer[k+1], recvBuffer[k+2], recvBuffer[k+3]);
+                }
+                data.setSamples(src, samples, count);
+            }
+            else {
+                System.out.println("empty data: " + length);
+            }
         }
+    }
 
+    /**
+     * Create the game. It launches the control panel user interface,
+     * which creates the game data model.
+     *
+     * @return
+     */
+    protected GameData createGame() {
+        ControlPanel panel = new ControlPanel("Project 4");
+        return panel.getData();
+    }
 
+    /**
+     * Start recording the game to the log file. The log is closed when the
+     * application exits.
+     */
+    private void startRecording() {
+        try {
+            final GameRecorder recorder = new GameRecorder(recordFile);
+            data.setRecorder(recorder);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    recorder.close();
+                }
+            });
+        } catch (IOException ex) {
+            // continue without recording
+            ex.printStackTrace();
+        }
     }
 
     /**
      * Send the color data to the SPOT address using the set color command
-     * in the packet, target address and the color RGB values.
+     * with the color RGB values. The command is queued, and sent by the
+     * command queue thread until the SPOT acknowledges it, so this does
+     * not wait for the send. An old SPOT is sent the legacy set color
+     * packet once, since it does not acknowledge it.
      *
      * @param addr
      * @param color
      */
-    public synchronized void sendColor(String addr, Color color) {
-        try {
-            dgSend.reset();
-            dgSend.writeByte(SET_COLOR);
-            dgSend.writeLong(IEEEAddress.toLong(addr));
-            dgSend.writeByte(color.getRed());
-            dgSend.writeByte(color.getGreen());
-            dgSend.writeByte(color.getBlue());
-            connSend.send(dgSend);
-        } catch (IOException ex) {
-            ex.printStackTrace();
+    public void sendColor(String addr, Color color) {
+        if (legacy.contains(addr))
+            commands.sendLegacy(addr, SET_COLOR, color.getRed(), color.getGreen(), color.getBlue());
+        else
+            commands.send(addr, SET_COLOR, color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    /**
+     * Get the log file to record the game to, as given in the command line
+     * arguments "record" followed by the file name.
+     *
+     * @param args the command line arguments
+     * @param offset the position of the record arguments
+     * @return The file name, or null if not recording.
+     */
+    protected static String getRecordFile(String[] args, int offset) {
+        if (args.length > offset+1 && "record".equals(args[offset]))
+            return args[offset+1];
+        return null;
+    }
+
+    /**
+     * Open the controller transport as given in the command line arguments.
+     * The argument "udp" with an optional port number opens the UDP transport
+     * on the localhost. Otherwise the SPOT radio transport is opened.
+     *
+     * @param args the command line arguments
+     * @param offset the position of the transport arguments
+     * @return
+     * @throws IOException
+     */
+    protected static ControllerTransport openTransport(String[] args, int offset) throws IOException {
+        if (args.length > offset && "udp".equals(args[offset])) {
+            int port = args.length > offset+1 ? Integer.parseInt(args[offset+1]) : UdpTransport.DEFAULT_PORT;
+            return new UdpTransport(port);
         }
+        return new RadiogramTransport();
     }
 
     /**
-     * Start up the host application.
+     * Start up the host application. The optional command line arguments
+     * select the log file to record to, e.g., "record race.log", and the
+     * transport, e.g., "udp 40040" to use software controllers.
      *
      * @param args any command line arguments
      */
     public static void main(String[] args) {
-        Project4BaseStation app = new Project4BaseStation();
-        app.run();
+        String record = getRecordFile(args, 0);
+        try {
+            Project4BaseStation app = new Project4BaseStation(openTransport(args, record != null ? 2 : 0));
+            app.setRecordFile(record);
+            app.run();
+        } catch (IOException ex) {
+            // return in case of exception
+            ex.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,197 @@
+package edu.usfca;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The headless base station application that runs the game without the user
+ * interface. It uses the same connections to the SPOTs as the base station,
+ * but the game data model is created without the control panel and views,
+ * so no window, event dispatch thread or repaint thread is created.
+ *
+ * Instead of the buttons of the control panel, a race thread runs the race
+ * lifecycle: once a player joins, it waits for the lobby duration so that
+ * others can join, and then starts the race. The race is stopped when every
+ * player has finished or lost, or when the race duration is over, and then a
+ * new map is created for the next race. If the map type is the name of a map
+ * file, that map is loaded again for every race instead. The players are
+ * logged as they join and leave.
+ *
+ * @author mamta
+ */
+public class Project4Server extends Project4BaseStation implements GameListener {
+    // how long in milliseconds to wait for players after the first one joins
+    private static final int DEFAULT_LOBBY_DURATION = 10000;
+
+    // the maximum duration of a race in milliseconds
+    private static final int DEFAULT_RACE_DURATION = 300000;
+
+    // how often in milliseconds to check the race state
+    private static final int CHECK_INTERVAL = 500;
+
+    // the map type and difficulty level of every race
+    private String mapType;
+    private String mapLevel;
+
+    // the lobby and race durations
+    private int lobbyDuration;
+    private int raceDuration;
+
+    // the game data model
+    private GameData data;
+
+    /**
+     * Construct the headless application.
+     *
+     * @param transport The transport to the controllers.
+     * @param mapType The map type.
+     * @param mapLevel The difficulty level of the map.
+     * @param lobbyDuration How long to wait for players before starting a race.
+     * @param raceDuration The maximum duration of a race.
+     */
+    public Project4Server(ControllerTransport transport, String mapType, String mapLevel, int lobbyDuration, int raceDuration) {
+        super(transport);
+        this.mapType = mapType;
+        this.mapLevel = mapLevel;
+        this.lobbyDuration = lobbyDuration;
+        this.raceDuration = raceDuration;
+    }
+
+    /**
+     * Create the game data model without the user interface, and start the
+     * race thread.
+     *
+     * @return
+     */
+    @Override
+    protected GameData createGame() {
+        data = new GameData(this);
+        data.setMapData(createMap());
+
+        Thread th = new Thread("Project4Server") {
+            @Override
+            public void run() {
+                runRaces();
+            }
+        };
+        th.setDaemon(true);
+        th.start();
+        return data;
+    }
+
+    /**
+     * Log the new player.
+     *
+     * @param player
+     */
+    public void added(PlayerData player) {
+        System.out.println("added " + player.getAddr());
+    }
+
+    /**
+     * Log the removed player along with its race result.
+     *
+     * @param player
+     */
+    public void removed(PlayerData player) {
+        if (player.hasFinished())
+            System.out.println("removed " + player.getAddr() + " finished in " + player.getFinishDuration() / 1000.0 + " seconds");
+        else if (player.isCompletelyDamaged())
+            System.out.println("removed " + player.getAddr() + " lost");
+        else
+            System.out.println("removed " + player.getAddr());
+    }
+
+    /**
+     * The race thread method that repeatedly waits for players, starts the race,
+     * waits for the race to be over, stops the race and creates a new map.
+     */
+    private void runRaces() {
+        try {
+            while (true) {
+                // wait for the first player, and then for others to join
+                while (!data.hasPlayers())
+                    Thread.sleep(CHECK_INTERVAL);
+                Thread.sleep(lobbyDuration);
+                if (!data.hasPlayers())
+                    continue;
+
+                System.out.println("race started on " + mapType + " " + mapLevel);
+                data.start();
+                while (!isRaceOver())
+                    Thread.sleep(CHECK_INTERVAL);
+
+                System.out.println("race stopped after " + data.getDuration() / 1000.0 + " seconds");
+                data.stop();
+                data.setMapData(createMap());
+            }
+        }
+        catch (InterruptedException ex) {
+            // return when interrupted
+        }
+    }
+
+    /**
+     * Create the map for the next race. If the map type is the name of a map
+     * file, the map is loaded from that file, else a random map is created.
+     *
+     * @return
+     */
+    private MapData createMap() {
+        if (new File(mapType).isFile()) {
+            try {
+                return MapFile.load(mapType);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return MapData.createRandom(mapType, mapLevel);
+    }
+
+    /**
+     * Check whether the race is over. It is over if the race duration is over,
+     * or there are no players, or every player has finished or lost.
+     *
+     * @return
+     */
+    private boolean isRaceOver() {
+        if (data.getDuration() >= raceDuration)
+            return true;
+
+        PlayerData[] players = data.getPlayers();
+        for (int i=0; i<players.length; ++i) {
+            if (!players[i].hasFinished() && !players[i].isCompletelyDamaged())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Start up the headless host application. The optional command line
+     * arguments are the map type or map file, the difficulty level, the lobby
+     * duration and the race duration in seconds, the log file to record to,
+     * and the transport, for example
+     * "Random Maze" Easy 10 300 record race.log udp 40040
+     *
+     * @param args any command line arguments
+     */
+    public static void main(String[] args) {
+        // no display is needed
+        System.setProperty("java.awt.headless", "true");
+
+        String type = args.length > 0 ? args[0] : MapData.RANDOM_BLOCKS;
+        String level = args.length > 1 ? args[1] : MapData.EASY;
+        int lobby = args.length > 2 ? Integer.parseInt(args[2]) * 1000 : DEFAULT_LOBBY_DURATION;
+        int race = args.length > 3 ? Integer.parseInt(args[3]) * 1000 : DEFAULT_RACE_DURATION;
+
+        String record = getRecordFile(args, 4);
+        try {
+            Project4Server app = new Project4Server(openTransport(args, record != null ? 6 : 4), type, level, lobby, race);
+            app.setRecordFile(record);
+            app.run();
+        } catch (IOException ex) {
+            // return in case of exception
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package edu.usfca;
+
+import com.sun.spot.io.j2me.radiogram.Radiogram;
+import com.sun.spot.io.j2me.radiogram.RadiogramConnection;
+import java.io.IOException;
+import javax.microedition.io.Connector;
+
+/**
+ * The transport using the SunSPOT radio. The tilt packets are received on
+ * the receive port, and the command packets are broadcast on the send port
+ * with a single hop.
+ *
+ * @author mamta
+ */
+public class RadiogramTransport implements ControllerTransport {
+    // the port number to receive data on from SPOT
+    private static final int PORT_RECV = 40;
+
+    // the port number to send data to SPOT
+    private static final int PORT_SEND = 41;
+
+    // the maximum size of the send and receive packets
+    private static final int SEND_SIZE = CommandQueue.MAX_PACKET_SIZE;
+    private static final int RECV_SIZE = Project4BaseStation.MAX_PACKET_SIZE;
+
+    // the connection to send data to the SPOTs and recv data from SPOTs.
+    private RadiogramConnection connSend;
+    private Radiogram dgSend;
+    private RadiogramConnection connRecv;
+    private Radiogram dgRecv;
+
+    /**
+     * Open the send and receive connections.
+     *
+     * @throws IOException
+     */
+    public RadiogramTransport() throws IOException {
+        // create the send connection
+        connSend = (RadiogramConnection) Connector.open("radiogram://broadcast:" + String.valueOf(PORT_SEND));
+        connSend.setMaxBroadcastHops(1);
+        dgSend = (Radiogram) connSend.newDatagram(SEND_SIZE);
+
+        // create the receive connection
+        connRecv = (RadiogramConnection) Connector.open("radiogram://:" + String.valueOf(PORT_RECV));
+        dgRecv = (Radiogram) connRecv.newDatagram(RECV_SIZE);
+    }
+
+    public int receive(byte[] buffer) throws IOException {
+        dgRecv.reset();
+        connRecv.receive(dgRecv);
+        int length = Math.min(dgRecv.getLength(), buffer.length);
+        dgRecv.readFully(buffer, 0, length);
+        return length;
+    }
+
+    public String getAddress() {
+        return dgRecv.getAddress();
+    }
+
+    public synchronized void send(byte[] buffer, int length) throws IOException {
+        dgSend.reset();
+        dgSend.write(buffer, 0, length);
+        connSend.send(dgSend);
+    }
+
+    public void close() {
+        try {
+            connSend.close();
+            connRecv.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package edu.usfca;
+
+/**
+ * Utility methods to convert a SPOT IEEE address between the dotted hex
+ * string, e.g., 0014.4F01.0000.1234, and the 64-bit value used in the
+ * command packets. These are same as the SunSPOT IEEEAddress methods, but
+ * do not need the SunSPOT libraries, so that a transport other than the
+ * radio can use them.
+ *
+ * @author mamta
+ */
+public class SpotAddress {
+    // the hex digits
+    private static final char[] digits = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Convert the dotted hex address to the 64-bit value. The dots are
+     * ignored.
+     *
+     * @param addr
+     * @return
+     */
+    public static long toLong(String addr) {
+        long value = 0;
+        for (int i=0; i<addr.length(); ++i) {
+            char c = addr.charAt(i);
+            if (c != '.') {
+                int digit = Character.digit(c, 16);
+                if (digit < 0)
+                    throw new IllegalArgumentException("invalid address " + addr);
+                value = (value << 4) | digit;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Convert the 64-bit value to the dotted hex address.
+     *
+     * @param value
+     * @return
+     */
+    public static String toDottedHex(long value) {
+        char[] result = new char[19];
+        for (int i=18; i>=0; --i) {
+            if (i % 5 == 4) {
+                result[i] = '.';
+            }
+            else {
+                result[i] = digits[(int) (value & 0x0f)];
+                value >>>= 4;
+            }
+        }
+        return new String(result);
+    }
+}
@@ -0,0 +1,187 @@
+package edu.usfca;
+
+import java.awt.Rectangle;
+
+/**
+ * The broad phase for car-to-car collision using sort and sweep. The cars
+ * are kept sorted by the start of their car rectangle along one axis. In
+ * every update, the sort order is repaired using insertion sort, and then
+ * the list is swept to find the cars whose rectangles overlap along that
+ * axis. Only those cars are checked for the intersection of their
+ * rectangles, and then of the cars turned by their angles.
+ *
+ * The sorted order is kept between updates. Since the cars move only a
+ * little in every update, the insertion sort does almost no swaps, and an
+ * update costs close to the number of cars instead of the number of pairs.
+ *
+ * The sweep axis is the one along which the cars are more spread out. All
+ * the cars start at the same Y position but different X positions, and
+ * later spread out along Y as they race towards the finish line.
+ *
+ * The broad phase is not synchronized. It is used only by the simulation.
+ *
+ * @author mamta
+ */
+public class SweepAndPrune {
+    // initial capacity of the car list
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the sweep axis is switched only if the other axis is this much more
+    // spread out, so that it does not flip back and forth.
+    private static final double AXIS_SWITCH_FACTOR = 2.0;
+
+    /**
+     * The listener that receives the pairs of colliding cars.
+     */
+    public interface Listener {
+        /**
+         * The car rectangles of the two players intersect.
+         *
+         * @param player1
+         * @param player2
+         */
+        public void collided(PlayerData player1, PlayerData player2);
+    }
+
+    // the cars sorted by the start position along the sweep axis, and the
+    // cached start position used as the sort key.
+    private PlayerData[] players = new PlayerData[INITIAL_CAPACITY];
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private int count = 0;
+
+    // whether the sweep axis is X or Y
+    private boolean sweepX = true;
+
+    // the number of pairs compared in the last update
+    private int checks = 0;
+
+    /**
+     * Add a new car. It is put at the end, and moved to its sorted place
+     * in the next update.
+     *
+     * @param player
+     */
+    public void add(PlayerData player) {
+        if (count == players.length) {
+            PlayerData[] p = new PlayerData[2 * count];
+            System.arraycopy(players, 0, p, 0, count);
+            players = p;
+            int[] k = new int[2 * count];
+            System.arraycopy(keys, 0, k, 0, count);
+            keys = k;
+        }
+        players[count++] = player;
+    }
+
+    /**
+     * Remove a car, keeping the sorted order of the remaining cars.
+     *
+     * @param player
+     */
+    public void remove(PlayerData player) {
+        for (int i=0; i<count; ++i) {
+            if (players[i] == player) {
+                System.arraycopy(players, i+1, players, i, count-i-1);
+                System.arraycopy(keys, i+1, keys, i, count-i-1);
+                players[--count] = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove all the cars.
+     */
+    public void clear() {
+        while (count > 0)
+            players[--count] = null;
+    }
+
+    /**
+     * Get the number of cars.
+     *
+     * @return
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Sort the cars by their current position and find all the colliding
+     * pairs. Each pair is reported once to the listener.
+     *
+     * @param listener
+     * @return The number of colliding pairs.
+     */
+    public int update(Listener listener) {
+        chooseAxis();
+
+        // refresh the keys and repair the order using insertion sort
+        for (int i=0; i<count; ++i) {
+            Rectangle rect = players[i].getCarRectangle();
+            int key = sweepX ? rect.x : rect.y;
+            PlayerData player = players[i];
+            int j = i;
+            while (j > 0 && keys[j-1] > key) {
+                players[j] = players[j-1];
+                keys[j] = keys[j-1];
+                --j;
+            }
+            players[j] = player;
+            keys[j] = key;
+        }
+
+        // sweep: a car can only overlap the following cars that start before it ends
+        int pairs = 0;
+        checks = 0;
+        for (int i=0; i<count; ++i) {
+            Rectangle rect1 = players[i].getCarRectangle();
+            int end = keys[i] + (sweepX ? rect1.width : rect1.height);
+            for (int j=i+1; j<count && keys[j] < end; ++j) {
+                ++checks;
+                if (rect1.intersects(players[j].getCarRectangle())
+                 && players[i].intersects(players[j])) {
+                    ++pairs;
+                    listener.collided(players[i], players[j]);
+                }
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Get the number of pairs of cars compared in the last update.
+     *
+     * @return
+     */
+    public int getChecks() {
+        return checks;
+    }
+
+    /**
+     * Choose the sweep axis as the one along which the car centers are more
+     * spread out, based on the variance of the center positions.
+     */
+    private void chooseAxis() {
+        if (count < 2)
+            return;
+
+        double sumX = 0, sumY = 0, sumX2 = 0, sumY2 = 0;
+        for (int i=0; i<count; ++i) {
+            Rectangle rect = players[i].getCarRectangle();
+            double x = rect.getCenterX();
+            double y = rect.getCenterY();
+            sumX += x;
+            sumY += y;
+            sumX2 += x*x;
+            sumY2 += y*y;
+        }
+        double varX = sumX2/count - (sumX/count)*(sumX/count);
+        double varY = sumY2/count - (sumY/count)*(sumY/count);
+
+        if (sweepX && varY > AXIS_SWITCH_FACTOR*varX)
+            sweepX = false;
+        else if (!sweepX && varX > AXIS_SWITCH_FACTOR*varY)
+            sweepX = true;
+    }
+}
@@ -0,0 +1,335 @@
+package edu.usfca;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The cache of pre-rendered tiles of the map, shared by all the player views.
+ * The map is cut at one-to-one scale into square tiles of TILE_SIZE pixels.
+ * A tile has the background, the grid, the static obstructions and the area
+ * outside the map boundary, which all never move, so a player view only has
+ * to copy the few tiles under it instead of checking every obstruction.
+ *
+ * The tile (column, row) covers the game data x from column*TILE_SIZE and y
+ * from row*TILE_SIZE. As in the player view, the direction of y in the tile
+ * image is top-to-bottom.
+ *
+ * The least recently used tile is evicted when the cache is full. All the
+ * tiles are dropped when the map changes.
+ *
+ * A tile is drawn with only the static obstructions that overlap it, found
+ * by a query of a collision index, so that a miss does not check every
+ * obstruction of a large map. The collision index of the map is used only
+ * by the simulation, so the cache keeps its own index of the static
+ * obstructions, which is built once when the map changes, skipping the
+ * moving ones.
+ *
+ * The number of hits, misses and
+ * evictions are counted, to tune the cache capacity. The cache of the game
+ * is a metric, which can be read over JMX and is dumped with the others.
+ *
+ * @see Metrics
+ * @author mamta
+ */
+public class TileCache implements TileCacheMBean {
+    // the width and height of a tile in pixels
+    public static final int TILE_SIZE = 256;
+
+    // the default number of tiles in the cache
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // the colors used, same as the player view
+    private static final Color bgColor = Color.BLACK;
+    private static final Color fgColor = Color.LIGHT_GRAY;
+
+    // the x,y spacing of the grid, same as the player view
+    private static final int gridSpace = 150;
+
+    // the maximum number of tiles
+    private int capacity;
+
+    // the tiles indexed by the tile position, in the least recently used order
+    private Map<Key, BufferedImage> tiles;
+
+    // the key reused to look up a tile, so that a lookup creates no object
+    private Key lookup = new Key();
+
+    // the map the tiles were drawn for
+    private MapData map = null;
+
+    // the static obstructions of the map, and the ids of its moving ones
+    private CollisionIndex statics = null;
+    private BitSet moves = new BitSet();
+
+    // the obstructions found by a query, and the rectangles reused to draw
+    private int[] candidates = new int[64];
+    private Rectangle tile = new Rectangle();
+    private Rectangle obstruction = new Rectangle();
+    private Rectangle area = new Rectangle();
+
+    // the cache statistics
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Construct a new cache with the default capacity.
+     */
+    public TileCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct a new cache.
+     *
+     * @param capacity The maximum number of tiles.
+     */
+    public TileCache(int capacity) {
+        this.capacity = capacity;
+        tiles = new LinkedHashMap<Key, BufferedImage>(2 * capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, BufferedImage> eldest) {
+                if (size() > TileCache.this.capacity) {
+                    ++evictions;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the tile of the map at the tile position. It is drawn if it is
+     * not in the cache.
+     *
+     * @param map
+     * @param column
+     * @param row
+     * @return
+     */
+    public synchronized BufferedImage get(MapData map, int column, int row) {
+        if (map != this.map) {
+            tiles.clear();
+            this.map = map;
+            index(map);
+        }
+
+        lookup.column = column;
+        lookup.row = row;
+        BufferedImage tile = tiles.get(lookup);
+        if (tile != null) {
+            ++hits;
+        }
+        else {
+            ++misses;
+            Key key = new Key();
+            key.column = column;
+            key.row = row;
+            tile = createTile(map, column, row);
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Get the number of tiles found in the cache.
+     *
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of tiles not found in the cache, which were drawn.
+     *
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of tiles evicted to make room for other tiles.
+     *
+     * @return
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the fraction of the tiles found in the cache.
+     *
+     * @return
+     */
+    public synchronized double getHitRate() {
+        return (hits + misses > 0 ? (double) hits / (hits + misses) : 0);
+    }
+
+    /**
+     * Get the number of tiles in the cache.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public int getSize() {
+        return size();
+    }
+
+    public synchronized void reset() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * Get the summary of the cache statistics as text.
+     *
+     * @return
+     */
+    @Override
+    public synchronized String toString() {
+        return Metrics.TILES + " hits=" + hits + " misses=" + misses + " evictions=" + evictions
+                + " hit rate=" + Math.round(getHitRate() * 1000) / 10.0 + "% size=" + tiles.size();
+    }
+
+    /**
+     * Index the static obstructions of the map, i.e., all the obstructions
+     * except the moving ones.
+     *
+     * @param map
+     */
+    private void index(MapData map) {
+        moves.clear();
+        int[] moving = map.getMovingObstructions();
+        for (int i=0; i<moving.length; ++i)
+            moves.set(moving[i]);
+
+        statics = new GridCollisionIndex(map.getBounds(), TILE_SIZE);
+        Rectangle[] obstructions = map.getObstructionSnapshot();
+        try {
+            for (int i=0; i<obstructions.length; ++i) {
+                Rectangle o = obstructions[i];
+                if (!moves.get(i))
+                    statics.add(o.x, o.y, o.width, o.height);
+            }
+        } finally {
+            map.releaseObstructionSnapshot(obstructions);
+        }
+    }
+
+    /**
+     * Draw the tile: background, grid, static obstructions and the area
+     * outside the map boundary.
+     *
+     * @param map
+     * @param column
+     * @param row
+     * @return
+     */
+    private BufferedImage createTile(MapData map, int column, int row) {
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.createGraphics();
+
+        // the tile rectangle with respect to data co-ordinates
+        Rectangle rect1 = tile;
+        rect1.setBounds(column * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+
+        // background
+        g.setColor(bgColor);
+        g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+
+        // the grid lines at every gridSpace from data position of (0,0)
+        g.setColor(fgColor);
+        for (int x = firstLine(rect1.x); x < rect1.x + TILE_SIZE; x += gridSpace) {
+            g.drawLine(x - rect1.x, 0, x - rect1.x, TILE_SIZE-1);
+        }
+        for (int y = firstLine(rect1.y); y < rect1.y + TILE_SIZE; y += gridSpace) {
+            int y1 = (rect1.y + TILE_SIZE - 1) - y;
+            g.drawLine(0, y1, TILE_SIZE-1, y1);
+        }
+
+        // the static obstructions near the tile
+        int n = statics.query(rect1.x, rect1.y, TILE_SIZE, TILE_SIZE, candidates);
+        if (n > candidates.length) {
+            candidates = new int[2 * n];
+            n = statics.query(rect1.x, rect1.y, TILE_SIZE, TILE_SIZE, candidates);
+        }
+        for (int i=0; i<n; ++i) {
+            statics.getBounds(candidates[i], obstruction);
+            if (rect1.intersects(obstruction))
+                fill(g, obstruction, rect1);
+        }
+
+        // the area outside the map boundary
+        Rectangle bounds = map.getBounds();
+        area.setBounds(rect1.x, rect1.y, bounds.x - rect1.x, TILE_SIZE);
+        fill(g, area, rect1);
+        area.setBounds(bounds.x + bounds.width, rect1.y, rect1.x + TILE_SIZE - bounds.x - bounds.width, TILE_SIZE);
+        fill(g, area, rect1);
+        area.setBounds(rect1.x, rect1.y, TILE_SIZE, bounds.y - rect1.y);
+        fill(g, area, rect1);
+        area.setBounds(rect1.x, bounds.y + bounds.height, TILE_SIZE, rect1.y + TILE_SIZE - bounds.y - bounds.height);
+        fill(g, area, rect1);
+
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Get the first grid line position at or after the given position.
+     *
+     * @param pos
+     * @return
+     */
+    private static int firstLine(int pos) {
+        int line = pos - pos % gridSpace;
+        return (line < pos ? line + gridSpace : line);
+    }
+
+    /**
+     * Fill the rectangle in game data in the tile. An empty rectangle is
+     * not drawn.
+     *
+     * @param g
+     * @param rect The rectangle to fill.
+     * @param tile The tile rectangle.
+     */
+    private static void fill(Graphics g, Rectangle rect, Rectangle tile) {
+        if (rect.width > 0 && rect.height > 0) {
+            int x1 = rect.x - tile.x;
+            int y1 = (tile.y + tile.height) - (rect.y + rect.height);
+            g.fillRect(x1, y1, rect.width, rect.height);
+        }
+    }
+
+    /**
+     * The tile position used as the key of a tile.
+     */
+    private static class Key {
+        int column;
+        int row;
+
+        @Override
+        public int hashCode() {
+            return column * 31 + row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return column == k.column && row == k.row;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package edu.usfca;
+
+/**
+ * The management interface of the tile cache, so that the cache statistics
+ * can be read over JMX, e.g., using jconsole, to tune the cache capacity.
+ *
+ * @see TileCache
+ * @author mamta
+ */
+public interface TileCacheMBean {
+    /**
+     * Get the number of tiles found in the cache.
+     * @return
+     */
+    public long getHits();
+
+    /**
+     * Get the number of tiles not found in the cache, which were drawn.
+     * @return
+     */
+    public long getMisses();
+
+    /**
+     * Get the number of tiles evicted to make room for other tiles.
+     * @return
+     */
+    public long getEvictions();
+
+    /**
+     * Get the fraction of the tiles found in the cache.
+     * @return
+     */
+    public double getHitRate();
+
+    /**
+     * Get the number of tiles in the cache.
+     * @return
+     */
+    public int getSize();
+
+    /**
+     * Clear the cache statistics. The tiles are kept.
+     */
+    public void reset();
+}
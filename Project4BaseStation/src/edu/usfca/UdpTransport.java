@@ -0,0 +1,144 @@
+package edu.usfca;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The transport using UDP datagrams, so that the base station can be run and
+ * load tested with software controllers instead of the SPOTs. The packets
+ * are same as on the radio: the controller sends the tilt packets to the
+ * port of this transport, and the command packets are sent back to every
+ * controller that has sent a packet, in place of the radio broadcast.
+ *
+ * The controller address is made from its IPv4 address and UDP port, in
+ * the SPOT address format, e.g., 0000.7F00.0001.9C41 for 127.0.0.1:40001.
+ *
+ * The datagram channel is non-blocking, and the receive waits on a selector
+ * when there is no packet, so that the send is never blocked by a receive.
+ *
+ * @author mamta
+ */
+public class UdpTransport implements ControllerTransport {
+    // the default port number to receive data on from the controllers
+    public static final int DEFAULT_PORT = 40040;
+
+    // the maximum size of the send and receive packets
+    private static final int MAX_SIZE = 128;
+
+    // the channel and the selector to wait for the received packet
+    private DatagramChannel channel;
+    private Selector selector;
+
+    // the buffers for received and sent packet
+    private ByteBuffer recvBuffer = ByteBuffer.allocateDirect(MAX_SIZE);
+    private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_SIZE);
+
+    // the source address of the last received packet
+    private String address;
+
+    // the controller address for each socket address, and the socket address
+    // of each controller to send the command packets to.
+    private Map<SocketAddress, String> addresses = new Hashtable<SocketAddress, String>();
+    private Map<String, SocketAddress> controllers = new Hashtable<String, SocketAddress>();
+
+    /**
+     * Open the channel on the localhost at the given port.
+     *
+     * @param port
+     * @throws IOException
+     */
+    public UdpTransport(int port) throws IOException {
+        this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+    }
+
+    /**
+     * Open the channel at the given local address.
+     *
+     * @param local
+     * @throws IOException
+     */
+    public UdpTransport(SocketAddress local) throws IOException {
+        channel = DatagramChannel.open();
+        channel.socket().bind(local);
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    public int receive(byte[] buffer) throws IOException {
+        while (true) {
+            recvBuffer.clear();
+            SocketAddress src = channel.receive(recvBuffer);
+            if (src != null) {
+                address = getAddress(src);
+                recvBuffer.flip();
+                int length = Math.min(recvBuffer.remaining(), buffer.length);
+                recvBuffer.get(buffer, 0, length);
+                return length;
+            }
+
+            // wait for the next packet
+            selector.select();
+            selector.selectedKeys().clear();
+            if (!channel.isOpen())
+                throw new IOException("closed");
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public synchronized void send(byte[] buffer, int length) throws IOException {
+        synchronized (controllers) {
+            for (Iterator<SocketAddress> it = controllers.values().iterator(); it.hasNext(); ) {
+                sendBuffer.clear();
+                sendBuffer.put(buffer, 0, length);
+                sendBuffer.flip();
+                channel.send(sendBuffer, it.next());
+            }
+        }
+    }
+
+    public void close() {
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Get the controller address of the socket address. The address is
+     * created and remembered the first time a socket address is seen.
+     *
+     * @param src
+     * @return
+     */
+    private String getAddress(SocketAddress src) {
+        String addr = addresses.get(src);
+        if (addr == null) {
+            InetSocketAddress inet = (InetSocketAddress) src;
+            byte[] ip = inet.getAddress().getAddress();
+            long value = 0;
+            for (int i=ip.length-4; i<ip.length; ++i)
+                value = (value << 8) | (ip[i] & 0x0ff);
+            value = (value << 16) | inet.getPort();
+
+            addr = SpotAddress.toDottedHex(value);
+            addresses.put(src, addr);
+            controllers.put(addr, src);
+        }
+        return addr;
+    }
+}
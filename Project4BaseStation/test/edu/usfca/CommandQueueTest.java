@@ -0,0 +1,120 @@
+package edu.usfca;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The commands to the SPOTs, sent by the command queue thread.
+ *
+ * @author mamta
+ */
+public class CommandQueueTest {
+    // the SPOT address, and the set color command
+    private static final String ADDR = "0014.4F01.0000.1234";
+    private static final int SET_COLOR = 80;
+
+    // how long in milliseconds to wait for the sender thread
+    private static final int TIMEOUT = 2000;
+
+    private Transport transport;
+    private CommandQueue queue;
+
+    @Before
+    public void setUp() {
+        transport = new Transport();
+        queue = new CommandQueue(transport, new Histogram("radio.ack"));
+        queue.start();
+    }
+
+    @After
+    public void tearDown() {
+        queue.stop();
+    }
+
+    /**
+     * A command is sent in a packet of commands until it is acknowledged.
+     */
+    @Test
+    public void commandIsSentUntilAcked() throws Exception {
+        queue.send(ADDR, SET_COLOR, 255, 0, 0);
+        byte[] packet = transport.take();
+        assertEquals(CommandQueue.COMMANDS, packet[0]);
+        assertEquals(1, packet[1]);
+        assertEquals(SET_COLOR, packet[2]);
+
+        transport.take();
+        assertEquals(1, queue.size());
+        queue.acked(ADDR, packet[3] & 0xff);
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * A legacy command is sent once in the packet of the old SPOT, and is
+     * not waiting for an acknowledgement.
+     */
+    @Test
+    public void legacyCommandIsSentOnce() throws Exception {
+        queue.sendLegacy(ADDR, SET_COLOR, 1, 2, 3);
+        byte[] packet = transport.take();
+        assertEquals(CommandQueue.LEGACY_PACKET_SIZE, packet.length);
+        assertEquals(SET_COLOR, packet[0]);
+        long addr = 0;
+        for (int i=1; i<9; ++i)
+            addr = (addr << 8) | (packet[i] & 0xff);
+        assertEquals(SpotAddress.toLong(ADDR), addr);
+        assertEquals(1, packet[9]);
+        assertEquals(2, packet[10]);
+        assertEquals(3, packet[11]);
+        assertEquals(0, queue.size());
+
+        Thread.sleep(3 * 200);
+        assertEquals(1, transport.count());
+    }
+
+    /**
+     * The transport that keeps the sent packets.
+     */
+    private static class Transport implements ControllerTransport {
+        private List<byte[]> sent = new ArrayList<byte[]>();
+        private int next = 0;
+
+        public int receive(byte[] buffer) throws IOException {
+            throw new IOException("not received");
+        }
+
+        public String getAddress() {
+            return null;
+        }
+
+        public synchronized void send(byte[] buffer, int length) {
+            byte[] packet = new byte[length];
+            System.arraycopy(buffer, 0, packet, 0, length);
+            sent.add(packet);
+            notifyAll();
+        }
+
+        public void close() {
+        }
+
+        synchronized byte[] take() throws InterruptedException {
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while (next == sent.size()) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    throw new AssertionError("no packet sent");
+                wait(wait);
+            }
+            return sent.get(next++);
+        }
+
+        synchronized int count() {
+            return sent.size();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package edu.usfca;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The drawing of a frame of the map view and of a player view, which must
+ * not allocate once warm, the same as the simulation step. The views draw
+ * into offscreen images, as in the paint benchmark, so the test runs in
+ * headless mode.
+ *
+ * @author mamta
+ */
+public class FrameViewTest {
+    // the number of players, and of frames to warm up and to measure
+    private static final int PLAYERS = 5;
+    private static final int WARM_FRAMES = 2000;
+    private static final int FRAMES = 1000;
+
+    // the bytes that may be allocated by a frame of both views. Java2D
+    // creates about 24 bytes in fillPolygon for every frame, which the views
+    // can not avoid, and a few more for the counter itself.
+    private static final long FRAME_BUDGET = 32;
+
+    private GameData data;
+    private MapView mapView;
+    private PlayerView playerView;
+    private BufferedImage mapImage;
+    private BufferedImage playerImage;
+    private Graphics mapGraphics;
+    private Graphics playerGraphics;
+
+    @Before
+    public void setUp() {
+        data = new GameData(new GameListener() {
+            public void added(PlayerData player) {
+            }
+            public void removed(PlayerData player) {
+            }
+        }, false);
+        data.setMapData(MapData.createRandom(MapData.MOVING_BLOCKS, MapData.DIFFICULT, 1));
+        PlayerData player = null;
+        for (int i=0; i<PLAYERS; ++i) {
+            PlayerData p = data.addPlayer("0014.4F01.0000.000" + i, i);
+            if (player == null)
+                player = p;
+        }
+        data.start();
+        data.getSimulation().step();
+
+        mapView = new MapView(data);
+        mapView.setSize(200, 718);
+        mapImage = new BufferedImage(200, 718, BufferedImage.TYPE_INT_RGB);
+        mapGraphics = mapImage.createGraphics();
+
+        playerView = new PlayerView(data, player, new TileCache());
+        playerView.setSize(400, 718);
+        playerImage = new BufferedImage(400, 718, BufferedImage.TYPE_INT_RGB);
+        playerGraphics = playerImage.createGraphics();
+    }
+
+    @After
+    public void tearDown() {
+        mapGraphics.dispose();
+        playerGraphics.dispose();
+    }
+
+    /**
+     * The warm frames of the map view and the player view, with the blocks
+     * moving in between, allocate nothing but what Java2D does.
+     */
+    @Test
+    public void warmFrameDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        render(WARM_FRAMES);
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        render(FRAMES);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        assertTrue("allocated " + allocated + " bytes in " + FRAMES + " frames",
+                allocated <= FRAME_BUDGET * FRAMES);
+    }
+
+    /**
+     * Draw the frames of both views, with a simulation step before each.
+     *
+     * @param frames
+     */
+    private void render(int frames) {
+        for (int n=0; n<frames; ++n) {
+            data.getSimulation().step();
+            mapView.render(mapGraphics);
+            playerView.render(playerGraphics);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.usfca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The players joining and leaving the game, and the reuse of their slots.
+ *
+ * @author mamta
+ */
+public class GameDataTest {
+    private GameData data;
+    private List<PlayerData> removed;
+
+    @Before
+    public void setUp() {
+        removed = new ArrayList<PlayerData>();
+        data = new GameData(new GameListener() {
+            public void added(PlayerData player) {
+            }
+            public void removed(PlayerData player) {
+                removed.add(player);
+            }
+        }, false);
+        data.setMapData(MapData.createRandom(MapData.OPEN_FIELD, MapData.EASY, 1));
+    }
+
+    /**
+     * A removed player keeps its last car state after a new player gets its
+     * slot, so that a view that still draws it does not draw the new car.
+     */
+    @Test
+    public void removedPlayerKeepsItsCar() {
+        PlayerData first = data.addPlayer("0014.4F01.0000.0001", 0);
+        data.commitPlayers();
+        double x = first.getX();
+        double y = first.getY();
+
+        data.remove(first);
+        data.commitPlayers();
+        PlayerData second = data.addPlayer("0014.4F01.0000.0002", 3);
+        data.commitPlayers();
+
+        assertEquals(first.getSlot(), second.getSlot());
+        assertNotSame(data.getStore(), first.getStore());
+        assertEquals(x, first.getX(), 0);
+        assertEquals(y, first.getY(), 0);
+        assertEquals(data.getMapData().getStart(3).getX(), second.getX(), 0);
+    }
+
+    /**
+     * A player replaced by a player of the same address is removed, so that
+     * its view is removed too.
+     */
+    @Test
+    public void replacedPlayerIsRemoved() {
+        PlayerData first = data.addPlayer("0014.4F01.0000.0001", 0);
+        data.commitPlayers();
+        PlayerData second = data.addPlayer("0014.4F01.0000.0001", 0);
+        data.commitPlayers();
+
+        assertEquals(1, removed.size());
+        assertSame(first, removed.get(0));
+        assertEquals(1, data.getPlayers().length);
+        assertSame(second, data.getPlayers()[0]);
+    }
+
+    /**
+     * The slot of a player removed before it joined is released too.
+     */
+    @Test
+    public void droppedPlayerSlotIsReleased() {
+        PlayerData first = data.addPlayer("0014.4F01.0000.0001", 0);
+        data.remove(first);
+        data.commitPlayers();
+        assertEquals(0, data.getPlayers().length);
+
+        PlayerData second = data.addPlayer("0014.4F01.0000.0002", 1);
+        assertEquals(first.getSlot(), second.getSlot());
+    }
+}
@@ -0,0 +1,83 @@
+package edu.usfca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The simulation step, which must not allocate once warm, so that a long
+ * game does not pause for the garbage collector.
+ *
+ * @author mamta
+ */
+public class GameSimulationTest {
+    // the number of players, and of steps to warm up and to measure
+    private static final int PLAYERS = 8;
+    private static final int WARM_STEPS = 2000;
+    private static final int STEPS = 1000;
+
+    // the bytes that may be allocated by all the measured steps, for the
+    // counter itself and the rare resize of a metric
+    private static final long ALLOCATION_BUDGET = 1024;
+
+    private GameData data;
+    private GameSimulation simulation;
+    private String[] addrs = new String[PLAYERS];
+
+    @Before
+    public void setUp() {
+        data = new GameData(new GameListener() {
+            public void added(PlayerData player) {
+            }
+            public void removed(PlayerData player) {
+            }
+        }, false);
+        data.setMapData(MapData.createRandom(MapData.MOVING_BLOCKS, MapData.DIFFICULT, 1));
+        for (int i=0; i<PLAYERS; ++i) {
+            addrs[i] = "0014.4F01.0000.000" + i;
+            data.addPlayer(addrs[i], i);
+        }
+        data.start();
+        simulation = data.getSimulation();
+    }
+
+    /**
+     * The warm steps of the game, with the input of every player, allocate
+     * nothing.
+     */
+    @Test
+    public void warmStepDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        run(WARM_STEPS);
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        run(STEPS);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        assertEquals(PLAYERS, data.getPlayers().length);
+        assertTrue("allocated " + allocated + " bytes in " + STEPS + " steps",
+                allocated <= ALLOCATION_BUDGET);
+    }
+
+    /**
+     * Run the steps, with every player steering and driving on.
+     *
+     * @param steps
+     */
+    private void run(int steps) {
+        for (int n=0; n<steps; ++n) {
+            for (int i=0; i<PLAYERS; ++i)
+                data.setAction(addrs[i], ((n / 100 + i) % 3 - 1) * 30, 40, 0);
+            simulation.step();
+        }
+    }
+}
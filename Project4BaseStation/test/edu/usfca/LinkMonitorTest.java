@@ -0,0 +1,94 @@
+package edu.usfca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The telling of the late, lost and duplicate packets, and of the packets
+ * of a restarted SPOT.
+ *
+ * @author mamta
+ */
+public class LinkMonitorTest {
+    // the interval in milliseconds between the packets of a SPOT
+    private static final int INTERVAL = 20;
+
+    private LinkMonitor link;
+
+    @Before
+    public void setUp() {
+        link = new LinkMonitor("test");
+    }
+
+    /**
+     * A packet behind the newest one is late, and a second copy of it is a
+     * duplicate.
+     */
+    @Test
+    public void latePacketIsDropped() {
+        assertTrue(send(1));
+        assertTrue(send(3));
+        assertEquals(1, link.getLost());
+
+        assertFalse(send(2));
+        assertEquals(0, link.getLost());
+        assertEquals(1, link.getLate());
+        assertFalse(send(2));
+        assertEquals(1, link.getDuplicates());
+    }
+
+    /**
+     * A packet further behind than the window, with an old tick, is late,
+     * and not taken as a restart.
+     */
+    @Test
+    public void oldPacketWithOldTickIsDropped() {
+        for (int seq=0; seq<=200; ++seq)
+            assertTrue(send(seq));
+
+        assertFalse(send(10));
+        assertEquals(1, link.getLate());
+        assertEquals(201, link.getReceived());
+
+        // the packets after the newest one are still new
+        assertTrue(send(201));
+        assertFalse(send(200));
+    }
+
+    /**
+     * A restarted SPOT numbers its packets from 0 again, with a newer tick.
+     */
+    @Test
+    public void restartedSpotIsAccepted() {
+        for (int seq=0; seq<=200; ++seq)
+            assertTrue(send(seq));
+
+        assertTrue(link.accept(0, 1000 * INTERVAL, 0));
+        assertTrue(link.accept(1, 1001 * INTERVAL, 0));
+        assertEquals(0, link.getLate());
+    }
+
+    /**
+     * The tick that wraps past 32 bits is newer.
+     */
+    @Test
+    public void wrappedTickIsNewer() {
+        assertTrue(link.accept(100, Integer.MAX_VALUE - INTERVAL, 0));
+        assertTrue(link.accept(0, Integer.MIN_VALUE + INTERVAL, 0));
+        assertFalse(link.accept(65000, Integer.MAX_VALUE, 0));
+    }
+
+    /**
+     * Send the packet with the tick of its sequence number.
+     *
+     * @param seq
+     * @return
+     */
+    private boolean send(int seq) {
+        return link.accept(seq, seq * INTERVAL, 0);
+    }
+}
@@ -0,0 +1,97 @@
+package edu.usfca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The publishing of the moving obstructions to the views.
+ *
+ * @author mamta
+ */
+public class MapDataMovingBlocksTest {
+    // the duration of a catch-up burst of the simulation, 10 steps of 20 ms
+    private static final int BURST = 10 * GameSimulation.TICK_INTERVAL;
+
+    // the move interval of the moving blocks, a single move
+    private static final int MOVE = 50;
+
+    private MapData map;
+    private int[] moving;
+
+    @Before
+    public void setUp() {
+        map = MapData.createRandom(MapData.MOVING_BLOCKS, MapData.EASY, 1);
+        moving = map.getMovingObstructions();
+        assertTrue(moving.length > 0);
+    }
+
+    /**
+     * A buffer held by a view is not written, even by a burst of moves.
+     */
+    @Test
+    public void heldBufferIsNotWritten() {
+        Rectangle[] held = map.getObstructionSnapshot();
+        int[] xs = new int[moving.length];
+        int[] ys = new int[moving.length];
+        for (int i=0; i<moving.length; ++i) {
+            xs[i] = held[moving[i]].x;
+            ys[i] = held[moving[i]].y;
+        }
+
+        for (int n=0; n<5; ++n)
+            map.step(BURST);
+
+        for (int i=0; i<moving.length; ++i) {
+            assertEquals(xs[i], held[moving[i]].x);
+            assertEquals(ys[i], held[moving[i]].y);
+        }
+        map.releaseObstructionSnapshot(held);
+    }
+
+    /**
+     * A view that takes the snapshot after the moves sees the latest positions.
+     */
+    @Test
+    public void snapshotHasLatestMove() {
+        Rectangle[] held = map.getObstructionSnapshot();
+        map.step(BURST);
+
+        Rectangle[] latest = map.getObstructionSnapshot();
+        assertNotSame(held, latest);
+        Rectangle bounds = new Rectangle();
+        for (int i=0; i<moving.length; ++i) {
+            map.getCollisionIndex().getBounds(moving[i], bounds);
+            assertEquals(bounds.getLocation(), latest[moving[i]].getLocation());
+        }
+        map.releaseObstructionSnapshot(latest);
+        map.releaseObstructionSnapshot(held);
+    }
+
+    /**
+     * When every other buffer is held, the move is not published, and the
+     * buffers are written again once released.
+     */
+    @Test
+    public void allBuffersHeld() {
+        Rectangle[] first = map.getObstructionSnapshot();
+        map.step(BURST);
+        Rectangle[] second = map.getObstructionSnapshot();
+        map.step(BURST);
+        Rectangle[] third = map.getObstructionSnapshot();
+        map.step(BURST);
+        assertSame(third, map.getObstructionSnapshot());
+        map.releaseObstructionSnapshot(third);
+
+        map.releaseObstructionSnapshot(first);
+        map.releaseObstructionSnapshot(second);
+        map.releaseObstructionSnapshot(third);
+        map.step(MOVE);
+        assertNotSame(third, map.getObstructionSnapshot());
+    }
+}
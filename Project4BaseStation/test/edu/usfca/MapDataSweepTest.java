@@ -0,0 +1,108 @@
+package edu.usfca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The sweep of a car along its move, when it already overlaps an
+ * obstruction at the start.
+ *
+ * @author mamta
+ */
+public class MapDataSweepTest {
+    // half the width and length of the car
+    private static final double HALF_WIDTH = 10;
+    private static final double HALF_LENGTH = 15;
+
+    // the wall, with its top edge 10 into a car at y = 0
+    private static final Rectangle WALL = new Rectangle(-100, -100, 200, 95);
+
+    private MapData map;
+
+    @Before
+    public void setUp() {
+        map = newMap(WALL);
+    }
+
+    /**
+     * A car that moves deeper into the obstruction it overlaps is hit at 0.
+     */
+    @Test
+    public void movingInIsHit() {
+        assertEquals(0, map.sweep(0, 0, HALF_WIDTH, HALF_LENGTH, 0, 0, -5), 0);
+    }
+
+    /**
+     * A car that moves out of the obstruction it overlaps is not hit.
+     */
+    @Test
+    public void movingOutIsNotHit() {
+        assertEquals(MapData.NO_IMPACT, map.sweep(0, 0, HALF_WIDTH, HALF_LENGTH, 0, 0, 5), 0);
+        assertEquals(MapData.NO_IMPACT, map.sweep(0, 0, HALF_WIDTH, HALF_LENGTH, 30, 2, 5), 0);
+    }
+
+    /**
+     * A car that moves along the obstruction it overlaps is not hit.
+     */
+    @Test
+    public void movingAlongIsNotHit() {
+        assertEquals(MapData.NO_IMPACT, map.sweep(0, 0, HALF_WIDTH, HALF_LENGTH, 0, 5, 0), 0);
+    }
+
+    /**
+     * A car that overlaps one obstruction still hits another one.
+     */
+    @Test
+    public void otherObstructionIsHit() {
+        map = newMap(WALL, new Rectangle(-100, 20, 200, 10));
+        assertEquals(0.5, map.sweep(0, 0, HALF_WIDTH, HALF_LENGTH, 0, 0, 10), 1e-9);
+    }
+
+    /**
+     * A car that starts overlapping a wall drives out of it, and is not
+     * damaged in every step.
+     */
+    @Test
+    public void overlappingCarDrivesOut() {
+        GameData data = new GameData(new GameListener() {
+            public void added(PlayerData player) {
+            }
+            public void removed(PlayerData player) {
+            }
+        }, false);
+        MapData empty = newMap();
+        Point start = empty.getStart(0);
+        data.setMapData(newMap(new Rectangle(start.x + WALL.x, start.y + WALL.y, WALL.width, WALL.height)));
+        String addr = "0014.4F01.0000.0001";
+        PlayerData player = data.addPlayer(addr, 0);
+        data.start();
+
+        for (int n=0; n<100; ++n) {
+            data.setAction(addr, 0, 60, 0);
+            data.getSimulation().step();
+        }
+        assertEquals(0, player.getDamage(), 0);
+        assertTrue(player.getY() > start.y + HALF_LENGTH);
+    }
+
+    /**
+     * Create a map of the default size with the obstructions.
+     *
+     * @param obstructions
+     * @return
+     */
+    private static MapData newMap(Rectangle... obstructions) {
+        MapData map = MapData.newInstance(MapData.OPEN_FIELD, MapData.EASY, 1);
+        map.createDefault();
+        for (int i=0; i<obstructions.length; ++i)
+            map.addObstruction(new Rectangle(obstructions[i]));
+        map.obstructionsAdded();
+        map.publishObstructions();
+        return map;
+    }
+}
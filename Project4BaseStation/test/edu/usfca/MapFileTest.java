@@ -0,0 +1,126 @@
+package edu.usfca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The loading of the map files, and of the files that are not.
+ *
+ * @author mamta
+ */
+public class MapFileTest {
+    // the offset of the length of the map type, after the magic, version and seed
+    private static final int TYPE_OFFSET = 14;
+
+    private MapData map;
+    private File file;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException {
+        map = MapData.createRandom(MapData.RANDOM_BLOCKS, MapData.EASY, 1);
+        file = File.createTempFile("map", ".rmap");
+        MapFile.save(map, file.getPath());
+        data = read(file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * A saved map is loaded with the same obstructions.
+     */
+    @Test
+    public void savedMapIsLoaded() throws IOException {
+        MapData loaded = MapFile.load(file.getPath());
+        assertEquals(map.getBounds(), loaded.getBounds());
+        assertEquals(map.getCollisionIndex().size(), loaded.getCollisionIndex().size());
+    }
+
+    /**
+     * A file that is truncated anywhere fails with an IOException.
+     */
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        for (int length=0; length<data.length; ++length) {
+            write(data, length);
+            assertCorrupt();
+        }
+    }
+
+    /**
+     * An obstruction count that overflows the size check fails with an
+     * IOException.
+     */
+    @Test
+    public void overflowingCountIsRejected() throws IOException {
+        int offset = data.length - 4 - 16 * map.getCollisionIndex().size();
+        ByteBuffer.wrap(data).putInt(offset, 0x10000001);
+        write(data, data.length);
+        assertCorrupt();
+    }
+
+    /**
+     * A negative string length fails with an IOException.
+     */
+    @Test
+    public void negativeLengthIsRejected() throws IOException {
+        ByteBuffer.wrap(data).putShort(TYPE_OFFSET, (short) -1);
+        write(data, data.length);
+        assertCorrupt();
+    }
+
+    /**
+     * Negative map bounds fail with an IOException.
+     */
+    @Test
+    public void negativeBoundsAreRejected() throws IOException {
+        int length = ByteBuffer.wrap(data).getShort(TYPE_OFFSET);
+        int offset = TYPE_OFFSET + 2 + length;
+        offset += 2 + ByteBuffer.wrap(data).getShort(offset) + 8;
+        ByteBuffer.wrap(data).putInt(offset, -1);
+        write(data, data.length);
+        assertCorrupt();
+    }
+
+    private void assertCorrupt() {
+        try {
+            MapFile.load(file.getPath());
+            fail("corrupt map file loaded");
+        } catch (IOException ex) {
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < data.length)
+                n += in.read(data, n, data.length - n);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package edu.usfca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The players added and removed, as applied by a commit.
+ *
+ * @author mamta
+ */
+public class PlayerRegistryTest {
+    private PlayerRegistry registry;
+    private List<PlayerData> joined;
+    private List<PlayerData> left;
+    private List<PlayerData> dropped;
+
+    private PlayerRegistry.Listener listener = new PlayerRegistry.Listener() {
+        public void joined(PlayerData player) {
+            joined.add(player);
+        }
+        public void left(PlayerData player) {
+            left.add(player);
+        }
+        public void dropped(PlayerData player) {
+            dropped.add(player);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        registry = new PlayerRegistry();
+        joined = new ArrayList<PlayerData>();
+        left = new ArrayList<PlayerData>();
+        dropped = new ArrayList<PlayerData>();
+    }
+
+    /**
+     * A committed player that is removed leaves.
+     */
+    @Test
+    public void committedPlayerLeaves() {
+        PlayerData player = newPlayer("0014.4F01.0000.0001");
+        registry.add(player);
+        registry.commit(listener);
+        registry.remove(player);
+        registry.commit(listener);
+
+        assertEquals(1, joined.size());
+        assertEquals(1, left.size());
+        assertSame(player, left.get(0));
+        assertEquals(0, dropped.size());
+        assertEquals(0, registry.snapshot().length);
+    }
+
+    /**
+     * A committed player that is replaced by a player of the same address
+     * leaves, and the new player joins.
+     */
+    @Test
+    public void replacedPlayerLeaves() {
+        PlayerData player = newPlayer("0014.4F01.0000.0001");
+        PlayerData other = newPlayer("0014.4F01.0000.0001");
+        registry.add(player);
+        registry.commit(listener);
+        assertSame(player, registry.add(other));
+        registry.commit(listener);
+
+        assertEquals(2, joined.size());
+        assertSame(other, joined.get(1));
+        assertEquals(1, left.size());
+        assertSame(player, left.get(0));
+        assertEquals(0, dropped.size());
+        assertEquals(1, registry.snapshot().length);
+        assertSame(other, registry.snapshot()[0]);
+        assertSame(other, registry.get(other.getAddr()));
+    }
+
+    /**
+     * A player added and removed between two commits never joins, and does
+     * not leave, but is dropped.
+     */
+    @Test
+    public void uncommittedPlayerIsDropped() {
+        PlayerData player = newPlayer("0014.4F01.0000.0001");
+        registry.add(player);
+        registry.remove(player);
+        registry.commit(listener);
+
+        assertEquals(0, joined.size());
+        assertEquals(0, left.size());
+        assertEquals(1, dropped.size());
+        assertSame(player, dropped.get(0));
+        assertEquals(0, registry.snapshot().length);
+    }
+
+    private static PlayerData newPlayer(String addr) {
+        return new PlayerData(addr, Color.RED, new Point(0, 0));
+    }
+}
@@ -0,0 +1,33 @@
+package edu.usfca.benchmark;
+
+/**
+ * The main class of the benchmarks jar. It runs the JMH benchmarks with the
+ * given JMH command line options, and writes the results as JSON to
+ * jmh-result.json unless another result format is given, so that the
+ * results of different versions can be compared.
+ *
+ * @author mamta
+ */
+public class Benchmarks {
+    /**
+     * Run the benchmarks.
+     *
+     * @param args the JMH command line options
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        boolean format = false;
+        for (int i=0; i<args.length; ++i) {
+            if ("-rf".equals(args[i]))
+                format = true;
+        }
+        if (!format) {
+            String[] a = new String[args.length + 2];
+            a[0] = "-rf";
+            a[1] = "json";
+            System.arraycopy(args, 0, a, 2, args.length);
+            args = a;
+        }
+        org.openjdk.jmh.Main.main(args);
+    }
+}
@@ -0,0 +1,102 @@
+package edu.usfca.benchmark;
+
+import edu.usfca.GridCollisionIndex;
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The collision check of a car against the obstructions of a map, from the
+ * 30 obstructions of an easy map to 100k obstructions. The map grows with
+ * the number of obstructions, so that their density stays that of a random
+ * blocks map. The grid collision index is compared with checking every
+ * obstruction, as the map did before it had the index.
+ *
+ * @author mamta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmark {
+    // the number of car positions checked in turn, a power of two
+    private static final int QUERIES = 1024;
+
+    // the cell size of the grid, same as the map
+    private static final int CELL_SIZE = 500;
+
+    // the number of obstructions
+    @Param({"30", "1000", "10000", "100000"})
+    public int obstructions;
+
+    // the obstructions in the index, and in a plain array
+    private GridCollisionIndex index;
+    private Rectangle[] list;
+
+    // the car rectangles to check, and the next one
+    private Rectangle[] cars = new Rectangle[QUERIES];
+    private int next = 0;
+
+    /**
+     * Create the obstructions and the car positions.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        int side = (int) Math.sqrt(obstructions) * 1000 + 2000;
+        Rectangle bounds = new Rectangle(-side/2, 0, side, side);
+
+        index = new GridCollisionIndex(bounds, CELL_SIZE);
+        list = new Rectangle[obstructions];
+        for (int i=0; i<obstructions; ++i) {
+            int width = 50 + random.nextInt(250);
+            int height = 50 + random.nextInt(250);
+            int x = bounds.x + random.nextInt(side - width);
+            int y = bounds.y + random.nextInt(side - height);
+            index.add(x, y, width, height);
+            list[i] = new Rectangle(x, y, width, height);
+        }
+
+        for (int i=0; i<QUERIES; ++i)
+            cars[i] = new Rectangle(bounds.x + random.nextInt(side - 20), bounds.y + random.nextInt(side - 30), 20, 30);
+    }
+
+    /**
+     * Check the next car using the grid collision index.
+     *
+     * @return
+     */
+    @Benchmark
+    public boolean grid() {
+        Rectangle car = cars[next++ & (QUERIES-1)];
+        return index.intersects(car.x, car.y, car.width, car.height);
+    }
+
+    /**
+     * Check the next car against every obstruction.
+     *
+     * @return
+     */
+    @Benchmark
+    public boolean linear() {
+        Rectangle car = cars[next++ & (QUERIES-1)];
+        for (int i=0; i<list.length; ++i) {
+            if (list[i].intersects(car))
+                return true;
+        }
+        return false;
+    }
+}
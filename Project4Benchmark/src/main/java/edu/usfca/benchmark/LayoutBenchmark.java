@@ -0,0 +1,129 @@
+package edu.usfca.benchmark;
+
+import edu.usfca.PlayerStore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One simulation step of all the cars, i.e., a tilt sample for every car,
+ * the input actions and the position update, with the car state in the
+ * columns of a player store, and with one object per car. The position
+ * update, which runs for every car in every step whether it has input or
+ * not, is also measured on its own.
+ *
+ * @author mamta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+    // the tilt samples given in turn
+    private static final int[] TILT_X = { 40, -40, 5, 60, -60, 0, 20, -20 };
+    private static final int[] TILT_Y = { 60, 30, -40, 80, 5, -20, 50, -60 };
+
+    // the update interval, same as the simulation
+    private static final int DURATION = 20;
+
+    // the number of cars
+    @Param({"10", "1000", "100000"})
+    public int players;
+
+    // the cars in a store, and as objects
+    private PlayerStore store;
+    private ObjectPlayer[] objects;
+
+    // the time of the objects, and the next tilt sample
+    private long time = 0;
+    private int next = 0;
+
+    /**
+     * Create the cars, spread over the map.
+     */
+    @Setup
+    public void setup() {
+        store = new PlayerStore(16);
+        objects = new ObjectPlayer[players];
+        for (int i=0; i<players; ++i) {
+            double x = -4000 + (i % 80) * 100;
+            double y = (i / 80) * 100;
+            int slot = store.allocate(x, y);
+            store.setActivity(slot, 0);
+            objects[i] = new ObjectPlayer(x, y, 0);
+        }
+    }
+
+    /**
+     * A step of the cars in the store.
+     *
+     * @return
+     */
+    @Benchmark
+    public int store() {
+        int n = ++next;
+        long now = store.getTime();
+        for (int i=0; i<players; ++i) {
+            store.setActivity(i, now);
+            store.setInput(i, TILT_X[(n + i) & 7], TILT_Y[(n + i) & 7], 0);
+        }
+        store.applyActions(DURATION, true);
+        store.update(DURATION);
+        return store.size();
+    }
+
+    /**
+     * The position update of the cars in the store.
+     *
+     * @return
+     */
+    @Benchmark
+    public int storeUpdate() {
+        store.update(DURATION);
+        return store.size();
+    }
+
+    /**
+     * A step of the car objects.
+     *
+     * @return
+     */
+    @Benchmark
+    public int objects() {
+        int n = ++next;
+        for (int i=0; i<players; ++i) {
+            objects[i].setActivity(time);
+            objects[i].setInput(TILT_X[(n + i) & 7], TILT_Y[(n + i) & 7], time);
+        }
+        for (int i=0; i<players; ++i)
+            objects[i].applyAction(DURATION, time);
+        time += DURATION;
+        for (int i=0; i<players; ++i)
+            objects[i].update(DURATION, time);
+        return objects.length;
+    }
+
+    /**
+     * The position update of the car objects.
+     *
+     * @return
+     */
+    @Benchmark
+    public int objectsUpdate() {
+        time += DURATION;
+        for (int i=0; i<players; ++i)
+            objects[i].update(DURATION, time);
+        return objects.length;
+    }
+}
@@ -0,0 +1,116 @@
+package edu.usfca.benchmark;
+
+import edu.usfca.MapData;
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The map creation, the collision check of a car, and the sweep of a car
+ * along a move, upright and turned, for each map type and difficulty
+ * level. The maps are created with a fixed seed, so every run measures
+ * the same maps.
+ *
+ * @author mamta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapBenchmark {
+    // the number of car positions checked in turn, a power of two
+    private static final int QUERIES = 1024;
+
+    // the seed of the maps
+    private static final long SEED = 1;
+
+    // the move of a car at top speed in a slow step of 100 ms
+    private static final double MOVE = 75;
+
+    // the map type and level
+    @Param({MapData.RANDOM_BLOCKS, MapData.RANDOM_MAZE, MapData.MOVING_BLOCKS, MapData.OPEN_FIELD})
+    public String type;
+
+    @Param({MapData.EASY, MapData.MODERATE, MapData.DIFFICULT})
+    public String level;
+
+    // the map to check the collisions in
+    private MapData map;
+
+    // the car rectangles to check, and the next one
+    private Rectangle[] cars = new Rectangle[QUERIES];
+    private int next = 0;
+
+    /**
+     * Create the map and the car positions in the map.
+     */
+    @Setup
+    public void setup() {
+        map = MapData.createRandom(type, level, SEED);
+
+        Random random = new Random(1);
+        Rectangle bounds = map.getBounds();
+        for (int i=0; i<QUERIES; ++i)
+            cars[i] = new Rectangle(bounds.x + random.nextInt(bounds.width - 20), bounds.y + random.nextInt(bounds.height - 30), 20, 30);
+    }
+
+    /**
+     * Create the map.
+     *
+     * @return
+     */
+    @Benchmark
+    public MapData createRandom() {
+        return MapData.createRandom(type, level, SEED);
+    }
+
+    /**
+     * Check the next car for collision with the map.
+     *
+     * @return
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean hasCollided() {
+        return map.hasCollided(cars[next++ & (QUERIES-1)]);
+    }
+
+    /**
+     * Sweep the next car along a diagonal move in the map.
+     *
+     * @return
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double sweep() {
+        Rectangle car = cars[next++ & (QUERIES-1)];
+        return map.sweep(car.x, car.y, car.width, car.height, MOVE, MOVE);
+    }
+
+    /**
+     * Sweep the next car turned by an angle along a diagonal move in the map,
+     * using the exact check of the turned car.
+     *
+     * @return
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double sweepTurned() {
+        int i = next++ & (QUERIES-1);
+        Rectangle car = cars[i];
+        return map.sweep(car.getCenterX(), car.getCenterY(), car.width/2.0, car.height/2.0, i, MOVE, MOVE);
+    }
+}
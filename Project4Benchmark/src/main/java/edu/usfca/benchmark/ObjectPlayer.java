@@ -0,0 +1,220 @@
+package edu.usfca.benchmark;
+
+/**
+ * The car state kept as fields of one object per car, as the player data
+ * did before the player store. It has the same input action, extrapolation
+ * and position update as the player store, with the same arithmetic, so
+ * that the layout benchmark compares only the layout. The time is given,
+ * instead of read from the clock, as in the player store.
+ *
+ * @author mamta
+ */
+public class ObjectPlayer {
+    // the same constants as the player store
+    private static final int RECENT_ACTIVITY_TIMEOUT = 1000;
+    private static final int CONTROL_INTERVAL = 100;
+    private static final double MAX_TILT_RATE = 0.3;
+    private static final double EXTRAPOLATION_TIME = 100;
+    private static final double RATE_TIME = 100;
+    private static final double RECONCILE_TIME = 60;
+    private static final double MAX_TILT = 90;
+    private static final int DAMAGE_LIMIT = 100;
+    private static final int SPEED_FORWARD_MAX = 150;
+    private static final int SPEED_REVERSE_MAX = 20;
+    private static final double SPEED_MIN = 3;
+    private static final double SPEED_ACCELERATION_FACTOR = 1/20.0;
+    private static final double SPEED_DECELERATION_FACTOR = 1/100.0;
+    private static final double ANGLE_CHANGE_FACTOR = 1/20.0;
+    private static final double SPEED_DECELERATE_ON_INACTIVITY = 2;
+    private static final double SPEED_FACTOR = 1/200.0;
+    private static final int MIN_SPEED_TILT = 10;
+    private static final int MIN_ANGLE_TILT = 10;
+
+    // the car state
+    private double x;
+    private double y;
+    private double speed = 0;
+    private double angle = 0;
+    private double dirX = 0;
+    private double dirY = 1;
+    private double damage = 0;
+    private long lastActivity;
+    private int interval;
+    private double fromX;
+    private double fromY;
+
+    // the held input, and its rate and offset
+    private int inputX;
+    private int inputY;
+    private boolean held = false;
+    private long inputTime;
+    private double rateX;
+    private double rateY;
+    private double errorX;
+    private double errorY;
+
+    /**
+     * Construct a new car at the start position.
+     *
+     * @param x
+     * @param y
+     * @param now The time of the last activity.
+     */
+    public ObjectPlayer(double x, double y, long now) {
+        this.x = x;
+        this.y = y;
+        lastActivity = now;
+    }
+
+    /**
+     * Some activity received from the player.
+     *
+     * @param now
+     */
+    public void setActivity(long now) {
+        lastActivity = now;
+    }
+
+    /**
+     * Set the held input, as the player store does.
+     *
+     * @param xd
+     * @param yd
+     * @param now
+     */
+    public void setInput(int xd, int yd, long now) {
+        if (held) {
+            if (now < inputTime)
+                return;
+
+            long since = inputTime;
+            double decayed = decay(now - since);
+            double oldX = estimate(inputX, rateX, decayed) + errorX;
+            double oldY = estimate(inputY, rateY, decayed) + errorY;
+
+            long dt = now - since;
+            if (dt > 0) {
+                double weight = Math.min(1, dt / RATE_TIME);
+                rateX += (limitRate((double) (xd - inputX) / dt) - rateX) * weight;
+                rateY += (limitRate((double) (yd - inputY) / dt) - rateY) * weight;
+            }
+            decayed = decay(0);
+            errorX = oldX - estimate(xd, rateX, decayed);
+            errorY = oldY - estimate(yd, rateY, decayed);
+        }
+        else {
+            rateX = 0;
+            rateY = 0;
+            errorX = 0;
+            errorY = 0;
+        }
+
+        inputX = xd;
+        inputY = yd;
+        inputTime = now;
+        held = true;
+    }
+
+    /**
+     * Apply the held input action for the duration, as the player store does.
+     *
+     * @param duration
+     * @param now
+     */
+    public void applyAction(int duration, long now) {
+        if (!held)
+            return;
+        if ((now - lastActivity) >= RECENT_ACTIVITY_TIMEOUT) {
+            held = false;
+            return;
+        }
+
+        double fraction = (double) duration / CONTROL_INTERVAL;
+        double decay = Math.exp(-duration / RECONCILE_TIME);
+        double decayed = decay(now - inputTime);
+        double xd = limitTilt(estimate(inputX, rateX, decayed) + errorX);
+        double yd = limitTilt(estimate(inputY, rateY, decayed) + errorY);
+        errorX *= decay;
+        errorY *= decay;
+
+        if (damage >= DAMAGE_LIMIT)
+            return;
+        if (Math.abs(yd) > MIN_SPEED_TILT) {
+            double s = speed;
+            double target = s;
+            if (s >= 0) {
+                if (yd > 0) {
+                    target += yd*SPEED_ACCELERATION_FACTOR;
+                }
+                else {
+                    target += yd*2*SPEED_ACCELERATION_FACTOR;
+                }
+            }
+            else {
+                target += yd*SPEED_DECELERATION_FACTOR;
+            }
+
+            if (target > (SPEED_FORWARD_MAX - damage))
+                target = (SPEED_FORWARD_MAX - damage);
+            else if (target < -SPEED_REVERSE_MAX)
+                target = -SPEED_REVERSE_MAX;
+
+            if (Math.abs(target) < SPEED_MIN)
+                s = 0;
+            else
+                s += (target - s)*fraction;
+            speed = s;
+        }
+
+        if (Math.abs(xd) > MIN_ANGLE_TILT) {
+            angle += xd*ANGLE_CHANGE_FACTOR*fraction;
+            double radians = Math.toRadians(angle);
+            dirX = Math.sin(radians);
+            dirY = Math.cos(radians);
+        }
+    }
+
+    /**
+     * Update the position of the car, as the player store does.
+     *
+     * @param duration
+     * @param now
+     */
+    public void update(int duration, long now) {
+        double factor = duration*SPEED_FACTOR;
+        interval = duration;
+        fromX = x;
+        fromY = y;
+
+        double s = speed;
+        x += s*dirX*factor;
+        y += s*dirY*factor;
+
+        double slow = ((now - lastActivity) >= RECENT_ACTIVITY_TIMEOUT ? SPEED_DECELERATE_ON_INACTIVITY*factor*2 : 0);
+        speed = Math.copySign(Math.max(0, Math.abs(s) - slow), s);
+    }
+
+    /**
+     * Get the x position of the car.
+     * @return
+     */
+    public double getX() {
+        return x;
+    }
+
+    private static double decay(long dt) {
+        return (dt > 0 ? 1 - Math.exp(-dt / EXTRAPOLATION_TIME) : 0);
+    }
+
+    private static double estimate(int input, double rate, double decayed) {
+        return input + rate*EXTRAPOLATION_TIME*decayed;
+    }
+
+    private static double limitRate(double rate) {
+        return Math.max(-MAX_TILT_RATE, Math.min(MAX_TILT_RATE, rate));
+    }
+
+    private static double limitTilt(double tilt) {
+        return Math.max(-MAX_TILT, Math.min(MAX_TILT, tilt));
+    }
+}
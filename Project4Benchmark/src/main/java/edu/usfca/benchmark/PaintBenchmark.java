@@ -0,0 +1,111 @@
+package edu.usfca.benchmark;
+
+import edu.usfca.GameData;
+import edu.usfca.GameListener;
+import edu.usfca.MapData;
+import edu.usfca.MapView;
+import edu.usfca.PlayerData;
+import edu.usfca.PlayerView;
+import edu.usfca.TileCache;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drawing a frame of the map view and of a player view into an offscreen
+ * image, on the difficult moving blocks map. Run with "-prof gc" to check
+ * that drawing a frame does not create objects.
+ *
+ * @author mamta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+    // the number of players in the game
+    @Param({"1", "5"})
+    public int players;
+
+    // the game, and the views
+    private GameData data;
+    private MapView mapView;
+    private PlayerView playerView;
+
+    // the offscreen images of the views, and their graphics
+    private BufferedImage mapImage;
+    private BufferedImage playerImage;
+    private Graphics mapGraphics;
+    private Graphics playerGraphics;
+
+    /**
+     * Create the game with the players, and the views.
+     */
+    @Setup
+    public void setup() {
+        data = new GameData(new GameListener() {
+            public void added(PlayerData player) {
+            }
+            public void removed(PlayerData player) {
+            }
+        }, false);
+        data.setMapData(MapData.createRandom(MapData.MOVING_BLOCKS, MapData.DIFFICULT, 1));
+        PlayerData player = null;
+        for (int i=0; i<players; ++i) {
+            PlayerData p = data.addPlayer("0000.0000.0000.000" + i, i);
+            if (player == null)
+                player = p;
+        }
+        data.start();
+        data.getSimulation().step();
+
+        mapView = new MapView(data);
+        mapView.setSize(200, 718);
+        mapImage = new BufferedImage(200, 718, BufferedImage.TYPE_INT_RGB);
+        mapGraphics = mapImage.createGraphics();
+
+        playerView = new PlayerView(data, player, new TileCache());
+        playerView.setSize(400, 718);
+        playerImage = new BufferedImage(400, 718, BufferedImage.TYPE_INT_RGB);
+        playerGraphics = playerImage.createGraphics();
+    }
+
+    /**
+     * Release the graphics.
+     */
+    @TearDown
+    public void tearDown() {
+        mapGraphics.dispose();
+        playerGraphics.dispose();
+    }
+
+    /**
+     * Draw a frame of the map view.
+     */
+    @Benchmark
+    public void mapView() {
+        mapView.render(mapGraphics);
+    }
+
+    /**
+     * Draw a frame of the player view.
+     */
+    @Benchmark
+    public void playerView() {
+        playerView.render(playerGraphics);
+    }
+}
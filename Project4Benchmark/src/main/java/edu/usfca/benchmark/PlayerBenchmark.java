@@ -0,0 +1,68 @@
+package edu.usfca.benchmark;
+
+import edu.usfca.PlayerData;
+import java.awt.Color;
+import java.awt.Point;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The input action and the position update of a single player.
+ *
+ * @author mamta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerBenchmark {
+    // the tilt samples given in turn, which speed up, slow down and steer
+    private static final int[] TILT_X = { 40, -40, 5, 60, -60, 0, 20, -20 };
+    private static final int[] TILT_Y = { 60, 30, -40, 80, 5, -20, 50, -60 };
+
+    // the update interval, same as the simulation
+    private static final int DURATION = 20;
+
+    // the player
+    private PlayerData player;
+
+    // the next tilt sample
+    private int next = 0;
+
+    /**
+     * Create the player.
+     */
+    @Setup
+    public void setup() {
+        player = new PlayerData("0000.0000.0000.0001", Color.RED, new Point(0, 0));
+        player.setActivity();
+    }
+
+    /**
+     * Apply the next tilt sample.
+     */
+    @Benchmark
+    public void setAction() {
+        int i = next++ & 7;
+        player.setAction(TILT_X[i], TILT_Y[i], 0);
+    }
+
+    /**
+     * Update the position of the car.
+     */
+    @Benchmark
+    public void update() {
+        player.update(DURATION);
+    }
+}
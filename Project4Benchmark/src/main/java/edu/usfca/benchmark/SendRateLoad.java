@@ -0,0 +1,155 @@
+package edu.usfca.benchmark;
+
+import edu.usfca.SendPolicy;
+import edu.usfca.TiltFilter;
+import java.util.Random;
+
+/**
+ * The load test of the radio channel, which compares the SPOT sending a tilt
+ * sample every 100 ms with the SPOT sending only changed samples and a
+ * heartbeat. Many players are simulated with a synthetic tilt trace each:
+ * the player holds a tilt for a while, then moves the SPOT to another tilt
+ * over a few hundred milliseconds, with some sensor noise on every sample.
+ * The senders are run on the same traces using the SendPolicy of the SPOT,
+ * with and without the TiltFilter of the SPOT.
+ *
+ * For each sender it reports the packets per second of one player, the
+ * largest packets sent by a player in any one second, how far the tilt held
+ * by the base station is from the true tilt, and the longest gap between
+ * two packets, which must stay below the one second after which a player
+ * is treated as inactive. The number of players that fit on one channel is
+ * the channel capacity, in packets per second, divided by the packet rate
+ * of one player.
+ *
+ * @author mamta
+ */
+public class SendRateLoad {
+    // the sample interval, threshold, and minimum and maximum send interval
+    // of the SPOT sender
+    private static final int SAMPLE_INTERVAL = 20;
+    private static final int THRESHOLD = 5;
+    private static final int MIN_SEND_INTERVAL = 100;
+    private static final int HEARTBEAT_INTERVAL = 500;
+
+    // the weight of a new reading in the low-pass filter of the SPOT
+    private static final double FILTER_WEIGHT = 0.5;
+
+    // the interval of the old sender that sends every sample
+    private static final int FIXED_INTERVAL = 100;
+
+    // the number of simulated players
+    private static final int PLAYERS = 200;
+
+    /**
+     * The result of one sender over all the players.
+     */
+    private static class Result {
+        long packets = 0;
+        int peak = 0;
+        double error = 0;
+        long samples = 0;
+        long maxGap = 0;
+
+        void print(String name, int seconds, int capacity) {
+            double rate = (double) packets / PLAYERS / seconds;
+            System.out.printf("%-8s %6.2f packets/s  peak %3d/s  held error %5.2f deg  max gap %4d ms  %4d players/channel%n",
+                    name, rate, peak, error / samples, maxGap, (int) (capacity / rate));
+        }
+    }
+
+    /**
+     * Run the load test.
+     *
+     * @param args seconds per player, channel capacity in packets per second,
+     * and sensor noise in degrees
+     */
+    public static void main(String[] args) {
+        int seconds = (args.length > 0 ? Integer.parseInt(args[0]) : 120);
+        int capacity = (args.length > 1 ? Integer.parseInt(args[1]) : 250);
+        double noise = (args.length > 2 ? Double.parseDouble(args[2]) : 1.0);
+
+        Result fixed = new Result();
+        Result changed = new Result();
+        Result filtered = new Result();
+        Random random = new Random(1);
+        for (int p=0; p<PLAYERS; ++p) {
+            long seed = random.nextLong();
+            run(new Random(seed), seconds, noise, null, null, fixed);
+            run(new Random(seed), seconds, noise, new SendPolicy(THRESHOLD, MIN_SEND_INTERVAL, HEARTBEAT_INTERVAL),
+                    null, changed);
+            run(new Random(seed), seconds, noise, new SendPolicy(THRESHOLD, MIN_SEND_INTERVAL, HEARTBEAT_INTERVAL),
+                    new TiltFilter(FILTER_WEIGHT), filtered);
+        }
+
+        System.out.println(PLAYERS + " players, " + seconds + " s each, channel of "
+                + capacity + " packets/s, sensor noise " + noise + " deg");
+        fixed.print("fixed", seconds, capacity);
+        changed.print("changed", seconds, capacity);
+        filtered.print("filtered", seconds, capacity);
+    }
+
+    /**
+     * Run one sender on the tilt trace of one player.
+     *
+     * @param random The random source of the trace.
+     * @param seconds
+     * @param noise
+     * @param policy The send policy, or null to send every FIXED_INTERVAL.
+     * @param filter The filter of the samples, or null to not filter.
+     * @param result
+     */
+    private static void run(Random random, int seconds, double noise, SendPolicy policy,
+            TiltFilter filter, Result result) {
+        // the tilt moved from and to, and the times of the move
+        double fromX = 0, fromY = 0, toX = 0, toY = 0;
+        long moveStart = 0, moveEnd = 0, holdEnd = 0;
+
+        // the tilt held by the base station
+        int heldX = 0, heldY = 0;
+        long lastSent = 0;
+        int inSecond = 0;
+
+        for (long now=0; now<seconds*1000L; now+=SAMPLE_INTERVAL) {
+            if (now >= holdEnd) {
+                fromX = toX;
+                fromY = toY;
+                toX = (random.nextDouble() * 2 - 1) * 60;
+                toY = (random.nextDouble() * 2 - 1) * 60;
+                moveStart = now;
+                moveEnd = now + 150 + random.nextInt(250);
+                holdEnd = moveEnd + 300 + random.nextInt(2200);
+            }
+            double f = (now >= moveEnd ? 1 : (double) (now - moveStart) / (moveEnd - moveStart));
+            double trueX = fromX + (toX - fromX) * f;
+            double trueY = fromY + (toY - fromY) * f;
+            int x = (int) (trueX + random.nextGaussian() * noise);
+            int y = (int) (trueY + random.nextGaussian() * noise);
+            if (filter != null) {
+                filter.add(x, y, 0);
+                x = filter.getX();
+                y = filter.getY();
+            }
+
+            boolean send;
+            if (policy != null)
+                send = policy.shouldSend(x, y, now);
+            else
+                send = (now % FIXED_INTERVAL == 0);
+
+            if (send) {
+                heldX = x;
+                heldY = y;
+                result.packets++;
+                result.maxGap = Math.max(result.maxGap, now - lastSent);
+                lastSent = now;
+                inSecond++;
+            }
+            if ((now + SAMPLE_INTERVAL) % 1000 == 0) {
+                result.peak = Math.max(result.peak, inSecond);
+                inSecond = 0;
+            }
+            result.error += Math.abs(heldX - trueX) + Math.abs(heldY - trueY);
+            result.samples += 2;
+        }
+    }
+}
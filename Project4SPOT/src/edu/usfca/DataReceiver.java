@@ -15,31 +15,59 @@ import javax.microedition.io.Connector;
  * to SET_COLOR where the basestation assigns a color to the SPOT and the
  * SPOT displays the color on the first LED.
  *
+ * The base station packs several commands to different SPOTs in one packet
+ * of COMMANDS, each with an id, its target address and three bytes of
+ * arguments. The ids of the commands to this SPOT are acknowledged in one
+ * ACK packet sent back to the base station, so that the base station stops
+ * sending them again. A single SET_COLOR packet without an id is also
+ * handled, as sent by the old base station.
+ *
  * @author mamta
  */
 public class DataReceiver implements Runnable {
     // The listening PORT number
     private static final int PORT = 41;
 
+    // The PORT number of the base station to send the acknowledgement to
+    private static final int ACK_PORT = 40;
+
     // The code for command to set color
     private static final int SET_COLOR = 80;
 
+    // The code for the packet of commands, and its acknowledgement, and the
+    // format version of the acknowledgement
+    private static final int COMMANDS = 82;
+    private static final int ACK = 83;
+    private static final int VERSION = 2;
+
+    // The maximum number of commands in a packet
+    private static final int MAX_BATCH = 6;
+
     private static EDemoBoard demoBoard = EDemoBoard.getInstance();
     private static ITriColorLED leds[] = demoBoard.getLEDs();
-    
+
     private RadiogramConnection conn = null;
     private Radiogram dg = null;
     private long myaddress;
 
+    // the connection to send the acknowledgement to the base station, and
+    // the address of the base station
+    private RadiogramConnection ackConn = null;
+    private Radiogram ackDg = null;
+    private String ackAddress = null;
+
+    // the ids of the commands to acknowledge
+    private int[] ids = new int[MAX_BATCH];
+
     /**
      * Create a new receiving connection.
      */
     public DataReceiver() {
         myaddress = Spot.getInstance().getRadioPolicyManager().getIEEEAddress();
-        
+
         try {
             conn = (RadiogramConnection) Connector.open("radiogram://:" + String.valueOf(PORT));
-            dg = (Radiogram) conn.newDatagram(16);
+            dg = (Radiogram) conn.newDatagram(2 + 13*MAX_BATCH);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
@@ -49,7 +77,8 @@ public class DataReceiver implements Runnable {
      * The thread method listens for packet, and for valid command of set color,
      * it checks whether the target address is this SPOT's address. It then
      * extracts the RGB of the color from the received packet and assigns it to
-     * the first LED.
+     * the first LED. The commands in a packet of commands are handled the
+     * same way, and acknowledged.
      */
     public void run() {
         while (true) {
@@ -63,22 +92,76 @@ public class DataReceiver implements Runnable {
                 if (command == SET_COLOR) {
                     long addr = dg.readLong();
                     if (addr == myaddress) {
+                        setColor(dg.readByte(), dg.readByte(), dg.readByte());
+                    }
+                }
+                else if (command == COMMANDS) {
+                    int count = dg.readByte();
+                    int acks = 0;
+                    for (int i=0; i<count; ++i) {
+                        int code = dg.readByte();
+                        int id = dg.readByte() & 0x0ff;
+                        long addr = dg.readLong();
                         int r = dg.readByte();
                         int g = dg.readByte();
                         int b = dg.readByte();
-                        if ((r == 0) && (g == 0) && (b == 0)) {
-                            leds[0].setOff();
-                        }
-                        else {
-                            LEDColor color = new LEDColor(r & 0x0ff, g & 0x0ff, b &0x0ff);
-                            leds[0].setOn();
-                            leds[0].setColor(color);
+                        if (addr == myaddress && acks < ids.length) {
+                            if (code == SET_COLOR)
+                                setColor(r, g, b);
+                            ids[acks++] = id;
                         }
                     }
+                    if (acks > 0)
+                        sendAck(dg.getAddress(), acks);
                 }
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
         }
     }
+
+    /**
+     * Set the color of the first LED, or turn it off for black.
+     *
+     * @param r
+     * @param g
+     * @param b
+     */
+    private void setColor(int r, int g, int b) {
+        if ((r == 0) && (g == 0) && (b == 0)) {
+            leds[0].setOff();
+        }
+        else {
+            LEDColor color = new LEDColor(r & 0x0ff, g & 0x0ff, b &0x0ff);
+            leds[0].setOn();
+            leds[0].setColor(color);
+        }
+    }
+
+    /**
+     * Send the acknowledgement of the command ids to the base station. The
+     * connection is opened to the base station address the first time, and
+     * again if the address changes.
+     *
+     * @param address The base station address.
+     * @param count The number of ids.
+     * @throws IOException
+     */
+    private void sendAck(String address, int count) throws IOException {
+        if (!address.equals(ackAddress)) {
+            if (ackConn != null)
+                ackConn.close();
+            ackConn = (RadiogramConnection) Connector.open("radiogram://" + address + ":" + String.valueOf(ACK_PORT));
+            ackDg = (Radiogram) ackConn.newDatagram(3 + MAX_BATCH);
+            ackAddress = address;
+        }
+
+        ackDg.reset();
+        ackDg.writeByte(ACK);
+        ackDg.writeByte(VERSION);
+        ackDg.writeByte(count);
+        for (int i=0; i<count; ++i)
+            ackDg.writeByte(ids[i]);
+        ackConn.send(ackDg);
+    }
 }
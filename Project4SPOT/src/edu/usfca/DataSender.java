@@ -9,15 +9,59 @@ import java.io.IOException;
 import javax.microedition.io.Connector;
 
 /**
- * The thread to send periodic accelerometer readings to the base station.
+ * The thread to send accelerometer readings to the base station.
  * This allows the SPOT to act as a input device. Only the tilt reading in
- * each dimension is sent as a three byte packet.
+ * each dimension is sent.
+ *
+ * The accelerometer is sampled every sample interval, and the readings are
+ * smoothed by a low-pass filter. A packet is sent only when the filtered
+ * tilt changed, or as a heartbeat when the tilt did not change for a while.
+ * The heartbeat interval is below the one second after which the base
+ * station treats the player as inactive.
+ *
+ * Every packet carries the last few filtered samples since the previous
+ * packet, each with its age, so that the base station can apply each sample
+ * at the time it was taken. The packet has the samples command, the format
+ * version, a 16 bit sequence number, the 32 bit SPOT time in milliseconds
+ * and the number of samples, and for each sample, oldest first, the age in
+ * milliseconds and the tilt in x, y, z, one byte each. The sequence number
+ * lets the base station drop late packets and count the lost ones.
+ *
+ * @see SendPolicy
+ * @see TiltFilter
  *
  * @author mamta
  */
 public class DataSender implements Runnable {
-    // Send data to base station every interval (in milliseconds)
-    private static final int INTERVAL = 100;
+    // Sample the accelerometer every interval (in milliseconds)
+    private static final int SAMPLE_INTERVAL = 20;
+
+    // the weight of a new reading in the low-pass filter
+    private static final double FILTER_WEIGHT = 0.5;
+
+    // Send data when x or y tilt changes by these many degrees
+    private static final int THRESHOLD = 5;
+
+    // Send data at most every interval (in milliseconds), same as the control
+    // interval of the base station
+    private static final int MIN_SEND_INTERVAL = 100;
+
+    // Send data at least every interval (in milliseconds), even if no change
+    private static final int HEARTBEAT_INTERVAL = 500;
+
+    // the command code and format version of the tilt samples packet.
+    private static final int SAMPLES = 81;
+    private static final int VERSION = 2;
+
+    // the size of the packet header
+    private static final int HEADER_SIZE = 9;
+
+    // the maximum number of samples in a packet, which cover the minimum
+    // send interval
+    private static final int MAX_SAMPLES = MIN_SEND_INTERVAL / SAMPLE_INTERVAL;
+
+    // the maximum age of a sample that fits in a byte
+    private static final int MAX_AGE = 255;
 
     // port number to send data to base station
     private static final int PORT = 40;
@@ -25,6 +69,22 @@ public class DataSender implements Runnable {
     private LIS3L02AQAccelerometer acc;
     private RadiogramConnection conn = null;
     private Radiogram dg = null;
+    private TiltFilter filter = new TiltFilter(FILTER_WEIGHT);
+    private SendPolicy policy = new SendPolicy(THRESHOLD, MIN_SEND_INTERVAL, HEARTBEAT_INTERVAL);
+
+    // the last filtered samples in a circular buffer, and their times
+    private int[] sampleX = new int[MAX_SAMPLES];
+    private int[] sampleY = new int[MAX_SAMPLES];
+    private int[] sampleZ = new int[MAX_SAMPLES];
+    private long[] sampleTime = new long[MAX_SAMPLES];
+
+    // the position of the next sample in the buffer, and the number of
+    // samples since the last packet
+    private int next = 0;
+    private int unsent = 0;
+
+    // the sequence number of the next packet
+    private int seq = 0;
 
     /**
      * Get a reference to the accelerometer and create the send connection.
@@ -36,37 +96,57 @@ public class DataSender implements Runnable {
         try {
             conn = (RadiogramConnection) Connector.open("radiogram://broadcast:" + String.valueOf(PORT));
             conn.setMaxBroadcastHops(1);
-            dg = (Radiogram) conn.newDatagram(3);
+            dg = (Radiogram) conn.newDatagram(HEADER_SIZE + 4*MAX_SAMPLES);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
     }
 
     /**
-     * Thread method to periodically send the accelerometer tilt information
-     * to the base station.
+     * Thread method to periodically sample the accelerometer, and send the
+     * filtered tilt information to the base station if it changed.
      */
     public void run() {
         while (true) {
-            Utils.sleep(INTERVAL);
+            Utils.sleep(SAMPLE_INTERVAL);
 
             try {
-                int x = (int) Math.toDegrees(acc.getTiltX());
-                int y = (int) Math.toDegrees(acc.getTiltY());
-                int z = (int) Math.toDegrees(acc.getTiltZ());
+                long now = System.currentTimeMillis();
+                filter.add(Math.toDegrees(acc.getTiltX()),
+                           Math.toDegrees(acc.getTiltY()),
+                           Math.toDegrees(acc.getTiltZ()));
+                sampleX[next] = filter.getX();
+                sampleY[next] = filter.getY();
+                sampleZ[next] = filter.getZ();
+                sampleTime[next] = now;
+                next = (next + 1) % MAX_SAMPLES;
+                if (unsent < MAX_SAMPLES)
+                    ++unsent;
+
+                if (!policy.shouldSend(filter.getX(), filter.getY(), now))
+                    continue;
 
                 dg.reset();
-                dg.writeByte(x);
-                dg.writeByte(y);
-                dg.writeByte(z);
+                dg.writeByte(SAMPLES);
+                dg.writeByte(VERSION);
+                dg.writeShort(seq);
+                dg.writeInt((int) now);
+                dg.writeByte(unsent);
+                for (int i=unsent; i>0; --i) {
+                    int k = (next - i + MAX_SAMPLES) % MAX_SAMPLES;
+                    dg.writeByte((int) Math.min(now - sampleTime[k], MAX_AGE));
+                    dg.writeByte(sampleX[k]);
+                    dg.writeByte(sampleY[k]);
+                    dg.writeByte(sampleZ[k]);
+                }
                 conn.send(dg);
+                unsent = 0;
+                seq = (seq + 1) & 0xffff;
 
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
         }
-        
+
     }
 }
-
-
@@ -0,0 +1,69 @@
+package edu.usfca;
+
+/**
+ * The policy that decides which tilt samples are sent to the base station.
+ * The accelerometer is sampled often, but a sample is sent only when the x
+ * or y tilt moved by at least the threshold since the last sent sample, or
+ * when nothing was sent for the heartbeat interval. No sample is sent
+ * within the minimum interval of the last one, since the base station does
+ * not apply the actions of a player more often than that anyway. The base
+ * station holds the last sent tilt, so a SPOT that is held still only sends
+ * heartbeats, which keep the player active, and leaves the channel to the
+ * other SPOTs.
+ *
+ * The z tilt is not checked, since it is ignored by the base station.
+ * This class uses no SunSPOT library, so that the same policy can be
+ * simulated on the host.
+ *
+ * @author mamta
+ */
+public class SendPolicy {
+    // the change in degrees of x or y tilt that is sent
+    private int threshold;
+
+    // the minimum and maximum number of milliseconds between two sent samples
+    private int minInterval;
+    private int heartbeat;
+
+    // the last sent tilt, and the time it was sent
+    private int lastX;
+    private int lastY;
+    private long lastSent;
+    private boolean sent = false;
+
+    /**
+     * Construct a new policy.
+     *
+     * @param threshold The change in degrees of tilt that is sent.
+     * @param minInterval The minimum number of milliseconds between two sent samples.
+     * @param heartbeat The maximum number of milliseconds between two sent samples.
+     */
+    public SendPolicy(int threshold, int minInterval, int heartbeat) {
+        this.threshold = threshold;
+        this.minInterval = minInterval;
+        this.heartbeat = heartbeat;
+    }
+
+    /**
+     * Check whether the sample should be sent. If so, it is remembered as
+     * the last sent sample.
+     *
+     * @param x
+     * @param y
+     * @param now The time of the sample in milliseconds.
+     * @return
+     */
+    public boolean shouldSend(int x, int y, long now) {
+        if (sent && now - lastSent < minInterval)
+            return false;
+        if (sent && Math.abs(x - lastX) < threshold && Math.abs(y - lastY) < threshold
+                && now - lastSent < heartbeat)
+            return false;
+
+        lastX = x;
+        lastY = y;
+        lastSent = now;
+        sent = true;
+        return true;
+    }
+}
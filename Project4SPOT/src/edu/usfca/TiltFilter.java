@@ -0,0 +1,91 @@
+package edu.usfca;
+
+/**
+ * The low-pass filter of the accelerometer tilt readings. Every new reading
+ * moves the filtered tilt by a fraction (the weight) of its difference from
+ * the filtered tilt, so that the noise of single readings is smoothed out
+ * while a real change of tilt still shows within a few readings.
+ *
+ * This class uses no SunSPOT library, so that the same filter can be
+ * simulated on the host.
+ *
+ * @author mamta
+ */
+public class TiltFilter {
+    // the fraction of the difference of a new reading that is taken
+    private double weight;
+
+    // the filtered tilt in degrees, and whether there was any reading
+    private double x;
+    private double y;
+    private double z;
+    private boolean started = false;
+
+    /**
+     * Construct a new filter.
+     *
+     * @param weight The fraction of a new reading that is taken, from 0 to 1.
+     * 1 does not filter at all.
+     */
+    public TiltFilter(double weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * Add a new reading. The first reading is taken as it is.
+     *
+     * @param xd
+     * @param yd
+     * @param zd
+     */
+    public void add(double xd, double yd, double zd) {
+        if (!started) {
+            x = xd;
+            y = yd;
+            z = zd;
+            started = true;
+        }
+        else {
+            x += (xd - x) * weight;
+            y += (yd - y) * weight;
+            z += (zd - z) * weight;
+        }
+    }
+
+    /**
+     * Get the filtered x tilt in degrees.
+     *
+     * @return
+     */
+    public int getX() {
+        return round(x);
+    }
+
+    /**
+     * Get the filtered y tilt in degrees.
+     *
+     * @return
+     */
+    public int getY() {
+        return round(y);
+    }
+
+    /**
+     * Get the filtered z tilt in degrees.
+     *
+     * @return
+     */
+    public int getZ() {
+        return round(z);
+    }
+
+    /**
+     * Utility method to round to the nearest integer.
+     *
+     * @param value
+     * @return
+     */
+    private static int round(double value) {
+        return (int) Math.floor(value + 0.5);
+    }
+}